@@ -22,8 +22,8 @@
 
 package com.mycsense.carbondb;
 
-import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Model;
@@ -32,7 +32,7 @@ import com.hp.hpl.jena.rdf.model.InfModel;
 import com.mycsense.carbondb.architecture.RepoFactory;
 import com.mycsense.carbondb.domain.*;
 import com.mycsense.carbondb.domain.Process;
-import com.mycsense.carbondb.domain.relation.TranslationDerivative;
+import com.mycsense.carbondb.domain.relation.Translator;
 
 import org.mindswap.pellet.jena.PelletReasonerFactory;
 import org.mindswap.pellet.jena.PelletInfGraph;
@@ -75,6 +75,8 @@ public class Reasoner {
 
     protected com.hp.hpl.jena.reasoner.Reasoner jenaReasoner;
     protected CarbonOntology ontology;
+    protected Calculation calculation;
+    protected int translationParallelism = Runtime.getRuntime().availableProcessors();
 
     private final Logger log = LoggerFactory.getLogger(Reasoner.class);
 
@@ -84,6 +86,7 @@ public class Reasoner {
     public Reasoner (Model model) {
         this.model = model;
         jenaReasoner = PelletReasonerFactory.theInstance().create();
+        calculation = new Calculation();
     }
 
     /**
@@ -101,39 +104,28 @@ public class Reasoner {
         log.info("Loading the object model");
         loadOntology();
         log.info("Translating source relations");
-        // We process the ontology only using the object model
-        for (SourceRelation sourceRelation: ontology.getSourceRelations().values()) {
-            ArrayList<TranslationDerivative> derivatives = new ArrayList<>();
-            try {
-                derivatives = sourceRelation.translate();
-            } catch (IncompatibleDimSetException | IncompatibleUnitsException e) {
-                log.warn(e.getMessage());
-            }
-            for (TranslationDerivative derivative: derivatives) {
+        int count = new Translator(ontology, translationParallelism).translate(ontology.getSourceRelations().values());
+        log.info(count + " derived relations created");
+
+        try {
+            calculation.run();
+
+            if (!calculation.isImpactsOnly()) {
+                log.info("Creating calculated flows");
                 try {
-                    ontology.addDerivedRelation(derivative.transformToDerivedRelation());
-                } catch (NoElementFoundException e) {
-                    //log.warn(e.getMessage()); // we do not want to log this, as it is a normal behavior
+                    calculation.createCalculatedElementaryFlows();
                 } catch (AlreadyExistsException e) {
                     log.warn(e.getMessage());
                 }
             }
-        }
-
-        Calculation calculation = new Calculation();
-        calculation.run();
-
-        log.info("Creating calculated flows");
-        try {
-            calculation.createCalculatedElementaryFlows();
-        } catch (AlreadyExistsException e) {
-            log.warn(e.getMessage());
-        }
-        log.info("Creating impacts");
-        try {
-            calculation.createImpacts();
-        } catch (AlreadyExistsException e) {
-            log.warn(e.getMessage());
+            log.info("Creating impacts");
+            try {
+                calculation.createImpacts();
+            } catch (AlreadyExistsException e) {
+                log.warn(e.getMessage());
+            }
+        } catch (DivergentCalculationException e) {
+            log.error(e.getMessage());
         }
 
         log.info("Checking the ontology");
@@ -142,6 +134,40 @@ public class Reasoner {
         log.info("Reasoning finished");
     }
 
+    /**
+     * Reloads the components of the impact types (i.e. the characterization factors) from the model
+     * and recalculates the impacts from the cumulative elementary flows of the last run.
+     * Neither the inference engine nor the translation of the source relations are run again,
+     * so this must only be used when the characterization factors are the only changes since the last run.
+     * The components are read through the inferred model of the last run, as by the full loading.
+     */
+    public void refreshImpacts() {
+        if (null == infModel) {
+            throw new IllegalStateException("The reasoner must be run before refreshing the impacts");
+        }
+        log.info("Reloading the impact types components");
+        int count = RepoFactory.getTypeRepo().refreshImpactComponents();
+        log.info("Refreshing the impacts of " + count + " impact types");
+        calculation.refreshImpacts();
+        log.info("Impacts refreshed");
+    }
+
+    /**
+     * Evaluates alternative sets of coefficient values against the ontology loaded by the last run,
+     * the ontology being loaded and translated first if it was not run yet.
+     * The results of the run are left unchanged.
+     *
+     * @param scenarios the scenarios
+     * @param sink the receiver of the impacts of every scenario, it must be thread safe
+     * @throws SingularMatrixException if the technology system of the ontology is singular
+     */
+    public void runScenarios(List<Scenario> scenarios, ScenarioSink sink) throws SingularMatrixException {
+        if (null == infModel) {
+            run();
+        }
+        calculation.runScenarios(scenarios, sink);
+    }
+
     /**
      * Check the ontology for the following inconsistencies:
      * <ul>
@@ -149,7 +175,7 @@ public class Reasoner {
      *     <li>group not used in any source relation</li>
      *     <li>groups not belonging to any category</li>
      *     <li>single elements not referenced in any group</li>
-     *     <li>single processes not having any cumulative elementary flow</li>
+     *     <li>single processes not having any cumulative elementary flow, unless only the impacts are calculated</li>
      *     <li>source relations not generating any derived relation</li>
      *     <li>unused dimensions</li>
      * </ul>
@@ -195,7 +221,7 @@ public class Reasoner {
             if (process.getGroups().size() == 0) {
                 log.warn("The process " + process.getId() + " is not referenced in any group");
             }
-            if (process.getCalculatedFlows().size() == 0) {
+            if (!calculation.isImpactsOnly() && process.getCalculatedFlows().size() == 0) {
                 log.warn("The process " + process.getId() + " has no calculated elementary flow");
             }
         }
@@ -242,6 +268,34 @@ public class Reasoner {
         ontology.setCategoryTree(RepoFactory.getCategoryRepo().getCategoriesTree());
     }
 
+    /**
+     * The calculation can be configured (e.g. its solver type) before running the reasoner.
+     *
+     * @return the calculation of the cumulative elementary flows and impacts.
+     */
+    public Calculation getCalculation() {
+        return calculation;
+    }
+
+    /**
+     * @return the number of workers translating the source relations.
+     */
+    public int getTranslationParallelism() {
+        return translationParallelism;
+    }
+
+    /**
+     * The derived relations do not depend on the number of workers.
+     *
+     * @param translationParallelism the number of workers translating the source relations.
+     */
+    public void setTranslationParallelism(int translationParallelism) {
+        if (translationParallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be at least 1, got " + translationParallelism);
+        }
+        this.translationParallelism = translationParallelism;
+    }
+
     /**
      * @return the inferred RDF model.
      */
@@ -90,6 +90,28 @@ public class TypeRepo extends AbstractRepo {
         return root;
     }
 
+    /**
+     * Reloads the components of the impact types already in the ontology.
+     * The impact types missing from the ontology are ignored, they need a full loading.
+     *
+     * @return the number of impact types whose components have been reloaded
+     */
+    public int refreshImpactComponents() {
+        int count = 0;
+        ResIterator i = model.listResourcesWithProperty(Datatype.belongsToCategoryOfImpactType);
+        while (i.hasNext()) {
+            Resource resource = i.next();
+            try {
+                ImpactType type = CarbonOntology.getInstance().getImpactType(getId(resource));
+                type.setComponents(getComponentsForImpact(resource));
+                count++;
+            } catch (NotFoundException e) {
+                log.warn(e.getMessage() + " - it will be loaded by the next full run");
+            }
+        }
+        return count;
+    }
+
     protected HashMap<ElementaryFlowType, Value> getComponentsForImpact(Resource impactType)
     {
         HashMap<ElementaryFlowType, Value> components = new HashMap<>();
@@ -23,16 +23,53 @@
 package com.mycsense.carbondb.domain;
 
 import com.mycsense.carbondb.AlreadyExistsException;
+import com.mycsense.carbondb.DivergentCalculationException;
+import com.mycsense.carbondb.SingularMatrixException;
+import com.mycsense.carbondb.domain.calculation.AnalyticUncertaintyPropagation;
+import com.mycsense.carbondb.domain.calculation.AnalyticUncertaintyPropagation.UncertainMatrix;
+import com.mycsense.carbondb.domain.calculation.BlockTriangularSolver;
+import com.mycsense.carbondb.domain.calculation.CalculationStore;
+import com.mycsense.carbondb.domain.calculation.ContributionAnalysis;
+import com.mycsense.carbondb.domain.calculation.ConvergenceTracker;
+import com.mycsense.carbondb.domain.calculation.LinearSolver;
+import com.mycsense.carbondb.domain.calculation.LowRankUpdate;
+import com.mycsense.carbondb.domain.calculation.MonteCarloSimulation;
+import com.mycsense.carbondb.domain.calculation.ParallelColumnSolver;
+import com.mycsense.carbondb.domain.calculation.ProcessGraph;
+import com.mycsense.carbondb.domain.calculation.RunningStatistics;
+import com.mycsense.carbondb.domain.calculation.ScenarioEngine;
+import com.mycsense.carbondb.domain.calculation.SolverType;
+import com.mycsense.carbondb.domain.calculation.SparseColumnMatrix;
+import com.mycsense.carbondb.domain.calculation.SparseLU;
+import com.mycsense.carbondb.domain.calculation.SpectralRadiusEstimator;
+import com.mycsense.carbondb.domain.calculation.TripletMatrixBuilder;
+import com.mycsense.carbondb.domain.calculation.UncertaintyMode;
+import com.mycsense.carbondb.domain.calculation.UpdatedSolver;
+import com.mycsense.carbondb.domain.calculation.VectorIterationSolver;
 import com.mycsense.carbondb.domain.elementaryFlow.DataSource;
 import org.la4j.matrix.Matrix;
 import org.la4j.matrix.sparse.CCSMatrix;
-import org.la4j.vector.Vector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>
@@ -68,15 +105,77 @@ import java.util.HashSet;
  *          </li>
  *     </ul>
  * </p>
+ * <p>
+ *     With the DIRECT solver type, the cumulative technology matrix is never calculated:
+ *     <code>I - R</code> is factorized once with a sparse LU and the cumulative elementary flows
+ *     are obtained by solving <code>(I - R) x = c</code> for every column <code>c</code> of the ecology matrix.
+ *     If the factorization fails, the power series is used instead.
+ * </p>
+ * <p>
+ *     With the JACOBI and GAUSS_SEIDEL solver types, the system is solved for every column of the ecology matrix
+ *     by vector iterations, using only sparse matrix-vector products.
+ * </p>
+ * <p>
+ *     With the BLOCK_TRIANGULAR solver type, the strongly connected components of the process graph
+ *     are computed first: the processes outside of any cycle are solved by substitution in topological order
+ *     and only the cycles are factorized.
+ * </p>
+ * <p>
+ *     With all these solver types, the columns of the ecology matrix are independent right-hand sides:
+ *     they are solved concurrently by a fork-join pool whose size is set with {@link #setParallelism(int)},
+ *     all the workers sharing the same read-only factorization or operator.
+ * </p>
+ * <p>
+ *     In the impacts only mode (see {@link #setImpactsOnly(boolean)}), the cumulative elementary flows are skipped:
+ *     the ecology matrix is first multiplied by the flow to impacts matrix and the system is solved
+ *     for the impacts directly.
+ * </p>
+ * <p>
+ *     With the MONTE_CARLO uncertainty mode, the uncertainties of the coefficients and of the elementary flows
+ *     are propagated to the impacts by sampling, see {@link MonteCarloSimulation}.
+ *     With the ANALYTIC uncertainty mode, the relative uncertainties are propagated at the first order
+ *     to the cumulative elementary flows and to the impacts, see {@link AnalyticUncertaintyPropagation}.
+ * </p>
+ * <p>
+ *     The results of a few processes can also be obtained without running the whole calculation,
+ *     with {@link #query(Process...)}.
+ *     Once run, the results can be updated after the change of a single coefficient
+ *     with {@link #updateCoefficient(Coefficient, Value)}, and after the change of the input elementary flows
+ *     with {@link #updateElementaryFlows()}.
+ * </p>
+ * <p>
+ *     Alternative sets of coefficient values can be evaluated against a single factorization
+ *     with {@link #runScenarios(List, ScenarioSink)}.
+ *     The results can be persisted into a state file, see {@link #setStateFile(File)} and {@link CalculationStore}.
+ * </p>
  */
 public class Calculation {
     protected Matrix dependencyMatrix, transitiveDependencyMatrix;
-    protected Matrix uncertaintyMatrix, transitiveUncertaintyMatrix;
+    protected Matrix uncertaintyMatrix;
     protected Matrix ecologicalMatrix, cumulativeEcologicalMatrix;
     protected Matrix flowToImpactsMatrix, flowToImpactsUncertaintyMatrix;
-    protected Matrix impactMatrix;
+    protected Matrix impactMatrix, impactUncertaintyMatrix;
     protected Matrix ecologicalUncertaintyMatrix, cumulativeEcologicalUncertaintyMatrix;
+    protected SparseColumnMatrix sparseDependencyMatrix, sparseEcologicalMatrix, sparseFlowToImpactsMatrix;
+    protected LinearSolver operator;
+    protected ProcessGraph processGraph;
+    protected SpectralRadiusEstimator spectralRadiusEstimator;
+    protected double spectralRadius = Double.NaN;
     protected Double threshold = 0.1;
+    protected Double relativeThreshold = 0.0;
+    protected Integer maxIterations = 100;
+    protected SolverType solverType = SolverType.SERIES;
+    protected int parallelism = Runtime.getRuntime().availableProcessors();
+    protected int maxUpdateRank = 32;
+    protected UncertaintyMode uncertaintyMode = UncertaintyMode.NONE;
+    protected int sampleCount = 1000;
+    protected long seed = 0L;
+    protected File stateFile;
+    protected boolean impactsOnly = false;
+    protected RunningStatistics[][] impactStatistics;
+    protected IdentityHashMap<Process, ProcessResult> queryCache = new IdentityHashMap<>();
+    protected ContributionAnalysis contributionAnalysis;
+    protected ScenarioEngine scenarioEngine;
 
     protected CarbonOntology ontology;
 
@@ -85,6 +184,10 @@ public class Calculation {
 
     protected ArrayList<Process> processes;
 
+    protected IndexRegistry<Process> processIndex;
+    protected IndexRegistry<ElementaryFlowType> elementaryFlowTypeIndex;
+    protected IndexRegistry<ImpactType> impactTypeIndex;
+
     private final Logger log = LoggerFactory.getLogger(Calculation.class);
 
     public Calculation() {
@@ -92,12 +195,16 @@ public class Calculation {
     }
 
     /**
-     * Launch the calculation, see the workflow describe above.
+     * Creates the matrices of the ontology, without solving anything.
+     * This is done by {@link #run()}, and by the first {@link #query(Process...)} if the calculation was not run.
      */
-    public void run() {
-        elementaryFlowTypes = new ArrayList<>(ontology.getElementaryFlowTypes().values());
-        processes = new ArrayList<>(ontology.getProcesses());
-        impactTypes = new ArrayList<>(ontology.getImpactTypes().values());
+    public void prepare() {
+        processIndex = ontology.getProcessIndex();
+        elementaryFlowTypeIndex = ontology.getElementaryFlowTypeIndex();
+        impactTypeIndex = ontology.getImpactTypeIndex();
+        processes = new ArrayList<>(processIndex.getElements());
+        elementaryFlowTypes = new ArrayList<>(elementaryFlowTypeIndex.getElements());
+        impactTypes = new ArrayList<>(impactTypeIndex.getElements());
 
         log.info("Creating ecological matrices");
         createEcologicalMatrices();
@@ -105,76 +212,574 @@ public class Calculation {
 
         log.info("Creating matrix");
         createProcessMatrices();
+        operator = null;
+        transitiveDependencyMatrix = null;
+        processGraph = null;
+        spectralRadiusEstimator = null;
+        spectralRadius = Double.NaN;
+        queryCache.clear();
+        contributionAnalysis = null;
+        scenarioEngine = null;
+    }
 
-        log.info("Calculating cumulative flows");
-        iterativeCalculationWithoutUncertainties();
-        cumulativeEcologicalMatrix = transitiveDependencyMatrix.multiply(ecologicalMatrix);
+    /**
+     * Launch the calculation, see the workflow describe above.
+     *
+     * @throws DivergentCalculationException if a cycle of the ontology makes the power series diverge
+     */
+    public void run() throws DivergentCalculationException {
+        prepare();
 
-        log.info("Calculating impacts");
-        impactMatrix = cumulativeEcologicalMatrix.multiply(flowToImpactsMatrix.transpose());
+        byte[] hash = null;
+        if (null != stateFile && UncertaintyMode.MONTE_CARLO != uncertaintyMode) {
+            hash = inputHash();
+            if (loadState(hash)) {
+                return;
+            }
+        }
+
+        estimateSpectralRadius();
+        LinearSolver solver = selectSolver();
+        if (null == solver) {
+            checkSpectralRadius();
+        }
 
-        // version with uncertainty calculation
-        //createProcessMatrices();
-        //iterativeCalculation();
-        //ecologicalCumulatedFlowCalculation();
+        log.info(impactsOnly ? "Calculating impacts" : "Calculating cumulative flows and impacts");
+        calculateResults(solver);
+
+        impactStatistics = null;
+        cumulativeEcologicalUncertaintyMatrix = null;
+        impactUncertaintyMatrix = null;
+        if (UncertaintyMode.MONTE_CARLO == uncertaintyMode) {
+            log.info("Propagating the uncertainties with " + sampleCount + " Monte Carlo samples");
+            runMonteCarlo();
+        }
+        else if (UncertaintyMode.ANALYTIC == uncertaintyMode) {
+            log.info("Propagating the uncertainties analytically");
+            calculateAnalyticUncertainties();
+        }
+
+        if (null != hash) {
+            saveState(hash);
+        }
 
         // matrix inversion method
         //createMatrix();
         //calculateCumulatedEcologicalFlows();
     }
 
+    /**
+     * Propagates the uncertainties of the coefficients and of the elementary flows to the impacts
+     * with a Monte Carlo simulation.
+     */
+    protected void runMonteCarlo() {
+        int[] cPointers = sparseEcologicalMatrix.getColumnPointers();
+        int[] cRows = sparseEcologicalMatrix.getRowIndices();
+        double[] ecologicalUncertainties = new double[sparseEcologicalMatrix.cardinality()];
+        for (int j = 0; j < sparseEcologicalMatrix.columns(); j++) {
+            for (int p = cPointers[j]; p < cPointers[j + 1]; p++) {
+                ecologicalUncertainties[p] = ecologicalUncertaintyMatrix.get(cRows[p], j);
+            }
+        }
+        double[] scales = new double[processes.size()];
+        for (int i = 0; i < processes.size(); i++) {
+            scales[i] = processes.get(i).getUnit().getConversionFactor();
+        }
+
+        MonteCarloSimulation simulation = new MonteCarloSimulation(
+                processes.size(), sparseEcologicalMatrix, ecologicalUncertainties, sparseFlowToImpactsMatrix, scales);
+        IdentityHashMap<Coefficient, Integer> parameters = new IdentityHashMap<>();
+        for (int i = 0; i < processes.size(); i++) {
+            for (DerivedRelation relation : processes.get(i).getDownstreamDerivedRelations()) {
+                Coefficient coefficient = relation.getCoeff();
+                if (!parameters.containsKey(coefficient)) {
+                    parameters.put(coefficient, simulation.addParameter(
+                            coefficient.getValue().value, coefficient.getValue().uncertainty));
+                }
+                simulation.addContribution(
+                        processIndex.indexOf(relation.getDestination()),
+                        i,
+                        parameters.get(coefficient),
+                        coefficient.getUnit().getConversionFactor(),
+                        -1 == relation.getExponent());
+            }
+        }
+
+        try {
+            impactStatistics = simulation.run(sampleCount, seed, parallelism);
+            if (simulation.getFailedSamples() > 0) {
+                log.warn(simulation.getFailedSamples() + " Monte Carlo samples were singular and have been skipped");
+            }
+        } catch (SingularMatrixException e) {
+            log.error("The Monte Carlo simulation failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Propagates the relative uncertainties of the technology matrix, of the ecology matrix and of the
+     * flow to impacts matrix to the cumulative elementary flows and to the impacts, visiting only the
+     * non zero values: the series is applied to the ecology matrix column by column, without forming
+     * the cumulative technology matrix. The values themselves are still the ones calculated by the solver.
+     */
+    protected void calculateAnalyticUncertainties() {
+        AnalyticUncertaintyPropagation propagation = new AnalyticUncertaintyPropagation();
+        UncertainMatrix dependencies = UncertainMatrix.of(
+                sparseDependencyMatrix, SparseColumnMatrix.fromMatrix(uncertaintyMatrix));
+        UncertainMatrix ecology = UncertainMatrix.of(
+                sparseEcologicalMatrix, SparseColumnMatrix.fromMatrix(ecologicalUncertaintyMatrix));
+        UncertainMatrix flowToImpacts = UncertainMatrix.of(
+                sparseFlowToImpactsMatrix, SparseColumnMatrix.fromMatrix(flowToImpactsUncertaintyMatrix)).transpose();
+        ConvergenceTracker tracker = new ConvergenceTracker(threshold, relativeThreshold);
+        if (impactsOnly) {
+            UncertainMatrix impacts = propagation.series(
+                    dependencies, propagation.multiply(ecology, flowToImpacts), tracker, maxIterations);
+            logConvergence(tracker);
+            impactUncertaintyMatrix = impacts.getUncertaintyMatrix().toCCSMatrix();
+            return;
+        }
+        UncertainMatrix flows = propagation.series(dependencies, ecology, tracker, maxIterations);
+        logConvergence(tracker);
+        UncertainMatrix impacts = propagation.multiply(flows, flowToImpacts);
+        cumulativeEcologicalUncertaintyMatrix = flows.getUncertaintyMatrix().toCCSMatrix();
+        impactUncertaintyMatrix = impacts.getUncertaintyMatrix().toCCSMatrix();
+    }
+
+    /**
+     * @return the hash of everything the results depend on: the matrices and the configuration of the calculation
+     */
+    protected byte[] inputHash() {
+        CalculationStore.ContentHash hash = new CalculationStore.ContentHash();
+        for (Process process : processes) {
+            hash.update(process.getId()).update(process.getUnit().getConversionFactor());
+        }
+        for (ElementaryFlowType type : elementaryFlowTypes) {
+            hash.update(type.getId());
+        }
+        for (ImpactType type : impactTypes) {
+            hash.update(type.getId());
+        }
+        hash.update(sparseDependencyMatrix)
+            .update(sparseEcologicalMatrix)
+            .update(sparseFlowToImpactsMatrix)
+            .update(solverType.name())
+            .update(threshold)
+            .update(relativeThreshold)
+            .update(maxIterations)
+            .update(uncertaintyMode.name())
+            .update(impactsOnly ? 1 : 0);
+        if (UncertaintyMode.ANALYTIC == uncertaintyMode) {
+            hash.update(SparseColumnMatrix.fromMatrix(uncertaintyMatrix))
+                .update(SparseColumnMatrix.fromMatrix(ecologicalUncertaintyMatrix))
+                .update(SparseColumnMatrix.fromMatrix(flowToImpactsUncertaintyMatrix));
+        }
+        return hash.digest();
+    }
+
+    /**
+     * Loads the results from the state file if they were calculated from the same inputs.
+     *
+     * @param hash the hash of the inputs
+     * @return true if the results were loaded
+     */
+    protected boolean loadState(byte[] hash) {
+        CalculationStore.State state;
+        try {
+            state = new CalculationStore(stateFile).load(hash);
+        } catch (IOException e) {
+            log.warn(e.getMessage() + " - calculating the results again");
+            return false;
+        }
+        if (null == state) {
+            log.info("The state file " + stateFile + " does not match the ontology, calculating the results again");
+            return false;
+        }
+        CalculationStore.State current = currentIds();
+        if (!current.processIds.equals(state.processIds)
+            || !current.elementaryFlowTypeIds.equals(state.elementaryFlowTypeIds)
+            || !current.impactTypeIds.equals(state.impactTypeIds)) {
+            log.info("The rows and columns of the state file " + stateFile + " do not match the current indexes,"
+                     + " calculating the results again");
+            return false;
+        }
+        cumulativeEcologicalMatrix = null == state.cumulativeFlows ? null : state.cumulativeFlows.toCCSMatrix();
+        impactMatrix = state.impacts.toCCSMatrix();
+        cumulativeEcologicalUncertaintyMatrix = null == state.cumulativeFlowUncertainties
+                                                ? null : state.cumulativeFlowUncertainties.toCCSMatrix();
+        impactUncertaintyMatrix = null == state.impactUncertainties ? null : state.impactUncertainties.toCCSMatrix();
+        impactStatistics = null;
+        transitiveDependencyMatrix = null;
+        log.info("Results loaded from the state file " + stateFile);
+        return true;
+    }
+
+    /**
+     * @return a state holding only the ids of the rows and columns of the current matrices
+     */
+    protected CalculationStore.State currentIds() {
+        CalculationStore.State state = new CalculationStore.State();
+        state.processIds = new ArrayList<>();
+        for (Process process : processes) {
+            state.processIds.add(process.getId());
+        }
+        state.elementaryFlowTypeIds = new ArrayList<>();
+        for (ElementaryFlowType type : elementaryFlowTypes) {
+            state.elementaryFlowTypeIds.add(type.getId());
+        }
+        state.impactTypeIds = new ArrayList<>();
+        for (ImpactType type : impactTypes) {
+            state.impactTypeIds.add(type.getId());
+        }
+        return state;
+    }
+
+    /**
+     * Saves the results into the state file, a failure being only logged.
+     *
+     * @param hash the hash of the inputs
+     */
+    protected void saveState(byte[] hash) {
+        CalculationStore.State state = currentIds();
+        state.hash = hash;
+        if (null != cumulativeEcologicalMatrix) {
+            state.cumulativeFlows = SparseColumnMatrix.fromMatrix(cumulativeEcologicalMatrix);
+        }
+        state.impacts = SparseColumnMatrix.fromMatrix(impactMatrix);
+        if (null != cumulativeEcologicalUncertaintyMatrix) {
+            state.cumulativeFlowUncertainties = SparseColumnMatrix.fromMatrix(cumulativeEcologicalUncertaintyMatrix);
+        }
+        if (null != impactUncertaintyMatrix) {
+            state.impactUncertainties = SparseColumnMatrix.fromMatrix(impactUncertaintyMatrix);
+        }
+        try {
+            new CalculationStore(stateFile).save(state);
+            log.info("Results saved into the state file " + stateFile);
+        } catch (IOException e) {
+            log.warn("Could not save the state file " + stateFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param i the index of a process
+     * @param j the index of an elementary flow type
+     * @return the uncertainty of the cumulative elementary flow, zero if it was not calculated
+     */
+    protected double flowUncertainty(int i, int j) {
+        return null == cumulativeEcologicalUncertaintyMatrix ? 0.0 : cumulativeEcologicalUncertaintyMatrix.get(i, j);
+    }
+
+    /**
+     * @param i the index of a process
+     * @param j the index of an impact type
+     * @return the uncertainty of the impact, zero if it was not calculated
+     */
+    protected double impactUncertainty(int i, int j) {
+        if (null != impactStatistics) {
+            return impactStatistics[i][j].getRelativeStandardDeviation();
+        }
+        return null == impactUncertaintyMatrix ? 0.0 : impactUncertaintyMatrix.get(i, j);
+    }
+
+    /**
+     * Calculates the cumulative elementary flows and the impacts with the solver selected for the solver type.
+     */
+    protected void calculateResults() {
+        calculateResults(selectSolver());
+    }
+
+    /**
+     * Calculates the cumulative elementary flows and the impacts with the given solver.
+     * In the impacts only mode, the system is solved for the columns of <code>C W<sup>T</sup></code>:
+     * the impacts are obtained directly, with one solve per impact type instead of one per elementary flow type.
+     *
+     * @param solver the solver of the technology system, or null for the power series
+     */
+    protected void calculateResults(LinearSolver solver) {
+        operator = solver;
+        SparseColumnMatrix rhs = impactsOnly ? directImpactMatrix() : sparseEcologicalMatrix;
+        Matrix solutions;
+        if (null == solver) {
+            iterativeCalculationWithoutUncertainties();
+            solutions = transitiveDependencyMatrix.multiply(rhs.toCCSMatrix());
+        }
+        else {
+            // the updates must use the solver, not the series of a previous calculation
+            transitiveDependencyMatrix = null;
+            solutions = solveColumns(solver, rhs);
+            if (solver instanceof VectorIterationSolver
+                && ((VectorIterationSolver) solver).getUnconvergedCount() > 0) {
+                log.warn("The iterations did not converge after " + maxIterations + " iterations for "
+                         + ((VectorIterationSolver) solver).getUnconvergedCount()
+                         + (impactsOnly ? " impact types" : " elementary flow types"));
+            }
+        }
+        if (impactsOnly) {
+            cumulativeEcologicalMatrix = null;
+            impactMatrix = solutions;
+        }
+        else {
+            cumulativeEcologicalMatrix = solutions;
+            impactMatrix = cumulativeEcologicalMatrix.multiply(flowToImpactsMatrix.transpose());
+        }
+    }
+
+    /**
+     * @return the impacts of the elementary flows of the processes only: <code>C W<sup>T</sup></code>
+     */
+    protected SparseColumnMatrix directImpactMatrix() {
+        return SparseColumnMatrix.fromMatrix(ecologicalMatrix.multiply(flowToImpactsMatrix.transpose()));
+    }
+
+    /**
+     * @return the graph of the processes of the technology matrix, created on the first call
+     *         from the matrix and not from the ontology, which may have changed since the preparation
+     */
+    protected ProcessGraph getProcessGraph() {
+        if (null == processGraph) {
+            processGraph = new ProcessGraph(processes, sparseDependencyMatrix);
+        }
+        return processGraph;
+    }
+
+    /**
+     * Estimates the spectral radius of the technology matrix before solving anything,
+     * see {@link SpectralRadiusEstimator}.
+     */
+    protected void estimateSpectralRadius() {
+        spectralRadiusEstimator = new SpectralRadiusEstimator(sparseDependencyMatrix, getProcessGraph());
+        spectralRadius = spectralRadiusEstimator.getSpectralRadius();
+        log.info("Estimated spectral radius of the technology matrix: " + spectralRadius);
+    }
+
+    /**
+     * @return true if a cycle of the process graph is estimated to have a gain of 1 or more
+     */
+    protected boolean isDivergent() {
+        return null != spectralRadiusEstimator && !spectralRadiusEstimator.getComponentsAbove(1.0).isEmpty();
+    }
+
+    /**
+     * If a cycle of the process graph has a gain of 1 or more, the power series does not converge:
+     * the calculation fails with the processes and the derived relations of the cycle.
+     * The other solvers do not depend on the convergence of the series and are not checked.
+     *
+     * @throws DivergentCalculationException if the spectral radius is not lower than 1
+     */
+    protected void checkSpectralRadius() throws DivergentCalculationException {
+        if (!isDivergent()) {
+            return;
+        }
+        ProcessGraph graph = getProcessGraph();
+        SpectralRadiusEstimator estimator = spectralRadiusEstimator;
+        ArrayList<Integer> divergent = estimator.getComponentsAbove(1.0);
+        StringBuilder message = new StringBuilder();
+        message.append("The calculation diverges: ").append(divergent.size()).append(" cycles have a gain of 1 or more");
+        for (int c : divergent) {
+            int[] members = graph.getComponents().get(c);
+            message.append("\n- gain ").append(estimator.getSpectralRadius(c)).append(" between the processes");
+            for (int i : members) {
+                message.append(" ").append(processes.get(i).getId());
+            }
+            message.append(", through the derived relations:");
+            for (int i : members) {
+                for (DerivedRelation relation : processes.get(i).getDownstreamDerivedRelations()) {
+                    int destination = processIndex.indexOf(relation.getDestination());
+                    if (-1 != destination && graph.getComponentOf(destination) == c) {
+                        message.append(" ").append(relation.getSource().getId())
+                               .append(" -[").append(relation.getCoeff().getId()).append("]-> ")
+                               .append(relation.getDestination().getId()).append(";");
+                    }
+                }
+            }
+        }
+        throw new DivergentCalculationException(message.toString());
+    }
+
+    /**
+     * The terms of the power series decrease like <code>&rho;<sup>n</sup></code>, the series stopping
+     * when the latest term is lower than the threshold.
+     *
+     * @return the estimated number of terms of the power series, 0 if the spectral radius was not estimated
+     */
+    protected int estimatedSeriesTerms() {
+        if (Double.isNaN(spectralRadius) || spectralRadius <= 0.0 || threshold <= 0.0) {
+            return 0;
+        }
+        if (spectralRadius >= 1.0) {
+            return Integer.MAX_VALUE;
+        }
+        double largest = 0.0;
+        for (double value : sparseDependencyMatrix.getValues()) {
+            largest = Math.max(largest, Math.abs(value));
+        }
+        if (largest <= threshold) {
+            return 1;
+        }
+        return (int) Math.ceil(Math.log(threshold / largest) / Math.log(spectralRadius));
+    }
+
+    /**
+     * <p>
+     *     Creates the solver of the technology system matching the solver type, and uses the estimate
+     *     of the spectral radius to replace it by the sparse LU factorization when the number of terms
+     *     of the power series, or of the Jacobi or Gauss-Seidel iterations, would exceed the maximum number
+     *     of iterations. The number of terms of the series bounds the number of iterations of both methods
+     *     when the technology matrix is non negative.
+     * </p>
+     * <p>
+     *     The power series is kept when the system diverges, so that the calculation fails
+     *     (see {@link #checkSpectralRadius}).
+     * </p>
+     *
+     * @return the solver, or null if the power series should be used
+     */
+    protected LinearSolver selectSolver() {
+        LinearSolver solver = createSolver();
+        int terms = estimatedSeriesTerms();
+        if (terms <= maxIterations) {
+            return solver;
+        }
+        if (null == solver && !isDivergent()) {
+            log.info("The power series would need about " + terms + " terms to converge,"
+                     + " solving the system directly instead");
+            try {
+                return SparseLU.factorize(sparseDependencyMatrix.minusFromIdentity());
+            } catch (SingularMatrixException e) {
+                log.warn(e.getMessage() + " - using the power series anyway");
+            }
+        }
+        else if (solver instanceof VectorIterationSolver) {
+            log.info("The iterations would need up to " + terms + " iterations to converge,"
+                     + " solving the system directly instead");
+            try {
+                return SparseLU.factorize(sparseDependencyMatrix.minusFromIdentity());
+            } catch (SingularMatrixException e) {
+                log.warn(e.getMessage() + " - using the iterations anyway");
+            }
+        }
+        return solver;
+    }
+
+    /**
+     * Creates the solver of the technology system matching the solver type.
+     *
+     * @return the solver, or null if the power series should be used
+     */
+    protected LinearSolver createSolver() {
+        switch (solverType) {
+            case DIRECT:
+                try {
+                    return SparseLU.factorize(sparseDependencyMatrix.minusFromIdentity());
+                } catch (SingularMatrixException e) {
+                    log.warn(e.getMessage() + " - using the power series instead");
+                }
+                break;
+            case JACOBI:
+            case GAUSS_SEIDEL:
+                return new VectorIterationSolver(
+                        sparseDependencyMatrix,
+                        threshold,
+                        relativeThreshold,
+                        maxIterations,
+                        SolverType.GAUSS_SEIDEL == solverType);
+            case BLOCK_TRIANGULAR:
+                ProcessGraph graph = getProcessGraph();
+                reportCycles(graph);
+                return new BlockTriangularSolver(
+                        sparseDependencyMatrix,
+                        graph,
+                        threshold,
+                        maxIterations);
+        }
+        return null;
+    }
+
+    /**
+     * Logs the cycles found in the process graph.
+     *
+     * @param graph the process graph
+     */
+    protected void reportCycles(ProcessGraph graph) {
+        ArrayList<ArrayList<Process>> cycles = graph.getCycles();
+        log.info(graph.getComponents().size() + " strongly connected components found, "
+                 + cycles.size() + " of them containing cycles");
+        for (ArrayList<Process> cycle: cycles) {
+            StringBuilder ids = new StringBuilder();
+            for (Process process: cycle) {
+                if (ids.length() > 0) {
+                    ids.append(", ");
+                }
+                ids.append(process.getId());
+            }
+            log.info("Cycle between " + cycle.size() + " processes: " + ids);
+        }
+    }
+
+    /**
+     * Solves the technology system for every column of the given matrix,
+     * the columns being distributed over the configured number of workers.
+     *
+     * @param solver the solver of the technology system
+     * @param rhs a matrix whose columns are the right-hand sides
+     * @return a matrix whose columns are the solutions
+     */
+    protected Matrix solveColumns(LinearSolver solver, SparseColumnMatrix rhs) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return new ParallelColumnSolver(solver, pool).solve(rhs).toCCSMatrix();
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
     /**
      * Creates the processes matrices (i.e.: the etchnology matrix) from the derived relations:
      * one with the coefficients values and one with the coefficients uncertainties.
      * If the relation has an negative exponent, the coefficient gets inverted.
      */
     protected void createProcessMatrices() {
-        dependencyMatrix = new CCSMatrix(processes.size(), processes.size());
-        uncertaintyMatrix = new CCSMatrix(processes.size(), processes.size());
+        TripletMatrixBuilder values = new TripletMatrixBuilder(processes.size(), processes.size());
+        TripletMatrixBuilder uncertainties = new TripletMatrixBuilder(processes.size(), processes.size());
         for (int i = 0; i < processes.size(); i++) {
             for (DerivedRelation relation : processes.get(i).getDownstreamDerivedRelations()) {
-                Process downStreamProcess = relation.getDestination();
-                double value = dependencyMatrix.get(processes.indexOf(downStreamProcess), i);
-                double uncertainty = uncertaintyMatrix.get(processes.indexOf(downStreamProcess), i);
-                double coeffValue = relation.getCoeff().getValue().value * relation.getCoeff().getUnit().getConversionFactor();
-                if (-1 == relation.getExponent()) {
-                    coeffValue = 1 / coeffValue;
-                }
-                dependencyMatrix.set(
-                        processes.indexOf(downStreamProcess),
-                        i,
-                        value+coeffValue
-                );
+                int row = processIndex.indexOf(relation.getDestination());
+                values.add(row, i, relationValue(relation));
                 // @todo: check if the uncertainties should be added
-                uncertaintyMatrix.set(
-                        processes.indexOf(downStreamProcess),
-                        i,
-                        uncertainty+relation.getCoeff().getValue().uncertainty
-                );
+                uncertainties.add(row, i, relation.getCoeff().getValue().uncertainty);
             }
         }
+        sparseDependencyMatrix = values.build();
+        dependencyMatrix = sparseDependencyMatrix.toCCSMatrix();
+        uncertaintyMatrix = uncertainties.build().toCCSMatrix();
+    }
+
+    /**
+     * @param relation a derived relation
+     * @return the contribution of the relation to the technology matrix
+     */
+    protected double relationValue(DerivedRelation relation) {
+        return relation.getMultiplier();
     }
 
     /**
      * Creates the ecology values and uncertainties matrices from the processes elementary flows.
      */
     protected void createEcologicalMatrices() {
-        ecologicalMatrix = new CCSMatrix(processes.size(), elementaryFlowTypes.size());
-        ecologicalUncertaintyMatrix = new CCSMatrix(processes.size(), elementaryFlowTypes.size());
+        TripletMatrixBuilder values = new TripletMatrixBuilder(processes.size(), elementaryFlowTypes.size());
+        TripletMatrixBuilder uncertainties = new TripletMatrixBuilder(processes.size(), elementaryFlowTypes.size());
 
         for (int i = 0; i < processes.size(); i++) {
-            HashMap<String, ElementaryFlow> flows = processes.get(i).getInputFlows();
-            for (int j = 0; j < elementaryFlowTypes.size(); j++) {
-                if (flows.containsKey(elementaryFlowTypes.get(j).getId())) {
-                    ecologicalMatrix.set(i, j, flows.get(elementaryFlowTypes.get(j).getId()).getValue().value);
-                    ecologicalUncertaintyMatrix.set(i, j, flows.get(elementaryFlowTypes.get(j).getId()).getValue().uncertainty);
-                }
-                else {
-                    ecologicalMatrix.set(i, j, 0.0);
-                    ecologicalUncertaintyMatrix.set(i, j, 0.0);
+            for (ElementaryFlow flow : processes.get(i).getInputFlows().values()) {
+                int column = elementaryFlowTypeIndex.indexOf(flow.getType());
+                if (-1 != column) {
+                    values.add(i, column, flow.getValue().value);
+                    uncertainties.add(i, column, flow.getValue().uncertainty);
                 }
             }
         }
+        sparseEcologicalMatrix = values.build();
+        ecologicalMatrix = sparseEcologicalMatrix.toCCSMatrix();
+        ecologicalUncertaintyMatrix = uncertainties.build().toCCSMatrix();
     }
 
     /**
@@ -182,22 +787,21 @@ public class Calculation {
      */
     protected void createFlowToImpactsMatrices() {
         // W -> cols = EFT, rows = IT
-        flowToImpactsMatrix = new CCSMatrix(impactTypes.size(), elementaryFlowTypes.size());
-        flowToImpactsUncertaintyMatrix = new CCSMatrix(impactTypes.size(), elementaryFlowTypes.size());
+        TripletMatrixBuilder values = new TripletMatrixBuilder(impactTypes.size(), elementaryFlowTypes.size());
+        TripletMatrixBuilder uncertainties = new TripletMatrixBuilder(impactTypes.size(), elementaryFlowTypes.size());
 
         for (int i = 0; i < impactTypes.size(); i++) {
-            HashMap<ElementaryFlowType, Value> components = impactTypes.get(i).getComponents();
-            for (int j = 0; j < elementaryFlowTypes.size(); j++) {
-                if (components.containsKey(elementaryFlowTypes.get(j))) {
-                    flowToImpactsMatrix.set(i, j, components.get(elementaryFlowTypes.get(j)).value);
-                    flowToImpactsUncertaintyMatrix.set(i, j, components.get(elementaryFlowTypes.get(j)).uncertainty);
-                }
-                else {
-                    flowToImpactsMatrix.set(i, j, 0.0);
-                    flowToImpactsUncertaintyMatrix.set(i, j, 0.0);
+            for (Map.Entry<ElementaryFlowType, Value> component : impactTypes.get(i).getComponents().entrySet()) {
+                int column = elementaryFlowTypeIndex.indexOf(component.getKey());
+                if (-1 != column) {
+                    values.add(i, column, component.getValue().value);
+                    uncertainties.add(i, column, component.getValue().uncertainty);
                 }
             }
         }
+        sparseFlowToImpactsMatrix = values.build();
+        flowToImpactsMatrix = sparseFlowToImpactsMatrix.toCCSMatrix();
+        flowToImpactsUncertaintyMatrix = uncertainties.build().toCCSMatrix();
     }
 
     /**
@@ -205,206 +809,1107 @@ public class Calculation {
      */
     protected void iterativeCalculationWithoutUncertainties()
     {
-        HashSet<Process> processes = CarbonOntology.getInstance().getProcesses();
-        Matrix dependencyProduct, prevTransitiveDependencyMatrix;
-
-        // R^0
-        transitiveDependencyMatrix = new CCSMatrix(processes.size(), processes.size());
-        for (int i = 0; i < transitiveDependencyMatrix.rows(); i++)
-            transitiveDependencyMatrix.set(i, i, 1.0);
+        Matrix dependencyProduct;
+        ConvergenceTracker tracker = new ConvergenceTracker(threshold, relativeThreshold);
 
         // R^0 + R^1
-        prevTransitiveDependencyMatrix = transitiveDependencyMatrix.copy();
-        transitiveDependencyMatrix = transitiveDependencyMatrix.add(dependencyMatrix);
+        transitiveDependencyMatrix = identityMatrix().add(dependencyMatrix);
         dependencyProduct = dependencyMatrix;
+        tracker.record(dependencyProduct, transitiveDependencyMatrix);
 
         int maxIter = 0;
-        while (differenceGreaterThanThreshold(prevTransitiveDependencyMatrix, transitiveDependencyMatrix) && maxIter < 100) {
-            prevTransitiveDependencyMatrix = transitiveDependencyMatrix.copy();
+        while (!tracker.hasConverged() && maxIter < maxIterations) {
             // R^n-1 + R^n
             dependencyProduct = dependencyProduct.multiply(dependencyMatrix);
             transitiveDependencyMatrix = transitiveDependencyMatrix.add(dependencyProduct);
+            tracker.record(dependencyProduct, transitiveDependencyMatrix);
 
             maxIter++;
         }
+        logConvergence(tracker);
     }
 
     /**
-     * Returns a boolean indicating if the difference between the two given matrices
-     * is greater (true) or lower (false) than the threshold.
+     * @return the identity matrix of the size of the technology matrix
+     */
+    protected Matrix identityMatrix() {
+        TripletMatrixBuilder identity = new TripletMatrixBuilder(processes.size(), processes.size(), processes.size());
+        for (int i = 0; i < processes.size(); i++) {
+            identity.add(i, i, 1.0);
+        }
+        return identity.build().toCCSMatrix();
+    }
+
+    /**
+     * Logs the state of the power series when it stopped.
      *
-     * @param a matrix a
-     * @param b matrix b
-     * @return true if the a - b is lower than the threshold, false otherwise
+     * @param tracker the convergence tracker of the power series
      */
-    protected boolean differenceGreaterThanThreshold(Matrix a, Matrix b)
-    {
-        Matrix c = a.subtract(b);
-        for (int i = 0; i < c.rows(); i++) {
-            for (int j = 0; j < c.columns(); j++) {
-                if (Math.abs(c.get(i,j)) >= threshold) {
-                    return true;
-                }
-            }
+    protected void logConvergence(ConvergenceTracker tracker) {
+        if (tracker.hasConverged()) {
+            log.info("The power series converged after " + tracker.getIterations() + " terms");
+        }
+        else {
+            log.warn("The power series did not converge after " + tracker.getIterations() + " terms,"
+                     + " the latest term changed a value by " + tracker.getMaxAbsoluteChange());
         }
-        return false;
     }
 
     /**
      * Creates the cumulative elementary flows for every process.
+     * Only the non zero entries are visited, the processes being distributed over the configured number of workers.
      *
      * @throws AlreadyExistsException
      */
     public void createCalculatedElementaryFlows() throws AlreadyExistsException {
-        for (int i = 0; i < processes.size(); i++) {
-            for (int j = 0; j < elementaryFlowTypes.size(); j++) {
-                double value = cumulativeEcologicalMatrix.get(i, j);
-                if (value != 0.0) {
-                    value *= processes.get(i).getUnit().getConversionFactor();
-                    ElementaryFlow flow = new ElementaryFlow(
-                            elementaryFlowTypes.get(j),
-                            new Value(value, 0.0),
-                            DataSource.CALCULATION);
-                    processes.get(i).addCalculatedFlow(flow);
-                }
-            }
+        if (null == cumulativeEcologicalMatrix) {
+            log.info("The cumulative elementary flows are not calculated in the impacts only mode");
+            return;
         }
+        final SparseColumnMatrix flowRows = rowsOf(cumulativeEcologicalMatrix);
+        forEachProcess(new ProcessAction() {
+            @Override
+            public void apply(int i) throws AlreadyExistsException {
+                processes.get(i).addCalculatedFlows(calculatedFlowsOf(flowRows, i));
+            }
+        });
     }
 
     /**
      * Creates the (calculated) impacts for every process.
+     * Only the non zero entries are visited, the processes being distributed over the configured number of workers.
      *
      * @throws AlreadyExistsException
      */
     public void createImpacts() throws AlreadyExistsException {
-        for (int i = 0; i < processes.size(); i++) {
-            for (int j = 0; j < impactTypes.size(); j++) {
-                double value = impactMatrix.get(i, j);
-                if (value != 0.0) {
-                    value *= processes.get(i).getUnit().getConversionFactor();
-                    Impact impact = new Impact(
-                            impactTypes.get(j),
-                            new Value(value, 0.0));
-                    processes.get(i).addImpact(impact);
+        final SparseColumnMatrix impactRows = rowsOf(impactMatrix);
+        forEachProcess(new ProcessAction() {
+            @Override
+            public void apply(int i) throws AlreadyExistsException {
+                processes.get(i).addImpacts(impactsOf(impactRows, i));
+            }
+        });
+    }
+
+    /**
+     * An action on the results of a process.
+     */
+    protected interface ProcessAction {
+        /**
+         * @param i the index of the process
+         * @throws AlreadyExistsException
+         */
+        void apply(int i) throws AlreadyExistsException;
+    }
+
+    /**
+     * Applies an action to every process, the processes being distributed over the configured number of workers.
+     * The actions on different processes must be independent.
+     *
+     * @param action the action
+     * @throws AlreadyExistsException the first exception thrown by the action, once all the processes are visited
+     */
+    protected void forEachProcess(ProcessAction action) throws AlreadyExistsException {
+        AtomicReference<AlreadyExistsException> failure = new AtomicReference<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            int blockSize = Math.max(1, processes.size() / (4 * parallelism));
+            pool.invoke(new ProcessesTask(action, failure, 0, processes.size(), blockSize));
+        }
+        finally {
+            pool.shutdown();
+        }
+        if (null != failure.get()) {
+            throw failure.get();
+        }
+    }
+
+    protected static class ProcessesTask extends RecursiveAction {
+        protected ProcessAction action;
+        protected AtomicReference<AlreadyExistsException> failure;
+        protected int from;
+        protected int to;
+        protected int blockSize;
+
+        public ProcessesTask(ProcessAction action, AtomicReference<AlreadyExistsException> failure,
+                             int from, int to, int blockSize) {
+            this.action = action;
+            this.failure = failure;
+            this.from = from;
+            this.to = to;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > blockSize) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ProcessesTask(action, failure, from, middle, blockSize),
+                          new ProcessesTask(action, failure, middle, to, blockSize));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    action.apply(i);
+                } catch (AlreadyExistsException e) {
+                    failure.compareAndSet(null, e);
                 }
             }
         }
     }
 
-    // Calculation with uncertainties
+    /**
+     * @param matrix a matrix whose rows are the processes
+     * @return the compressed row storage of the matrix: the columns of the returned matrix are its rows
+     */
+    protected SparseColumnMatrix rowsOf(Matrix matrix) {
+        return SparseColumnMatrix.fromMatrix(matrix).transpose();
+    }
 
-    protected void iterativeCalculation()
-    {
-        Matrix prevTransitiveDependencySum, transitiveDependencySum,
-                prevUncertaintySum, uncertaintySum,
-                prevDependencyProduct, dependencyProduct,
-                prevUncertaintyProduct, uncertaintyProduct;
+    /**
+     * @param matrix a matrix
+     * @param selected the rows to read, by index, or null to read all the rows
+     * @return the compressed row storage of the selected rows, the other rows being empty
+     */
+    protected SparseColumnMatrix rowsOf(Matrix matrix, boolean[] selected) {
+        if (null == selected) {
+            return rowsOf(matrix);
+        }
+        TripletMatrixBuilder rows = new TripletMatrixBuilder(matrix.columns(), matrix.rows());
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) {
+                for (int j = 0; j < matrix.columns(); j++) {
+                    double value = matrix.get(i, j);
+                    if (0.0 != value) {
+                        rows.add(j, i, value);
+                    }
+                }
+            }
+        }
+        return rows.build();
+    }
 
-        // R^0
-        transitiveDependencySum = new CCSMatrix(processes.size(), processes.size());
-        for (int i = 0; i < transitiveDependencySum.rows(); i++)
-            transitiveDependencySum.set(i, i, 1.0);
+    /**
+     * @param flowRows the compressed row storage of the cumulative elementary flows
+     * @param i the index of a process
+     * @return the cumulative elementary flows of the process, indexed by elementary flow type id
+     */
+    protected HashMap<String, ElementaryFlow> calculatedFlowsOf(SparseColumnMatrix flowRows, int i) {
+        int[] pointers = flowRows.getColumnPointers();
+        int[] types = flowRows.getRowIndices();
+        double[] values = flowRows.getValues();
+        double conversionFactor = processes.get(i).getUnit().getConversionFactor();
+        HashMap<String, ElementaryFlow> flows = new HashMap<>();
+        for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+            ElementaryFlow flow = new ElementaryFlow(
+                    elementaryFlowTypes.get(types[p]),
+                    new Value(values[p] * conversionFactor, flowUncertainty(i, types[p])),
+                    DataSource.CALCULATION);
+            flows.put(flow.getType().getId(), flow);
+        }
+        return flows;
+    }
 
-        // R^0 + R^1
-        prevTransitiveDependencySum = transitiveDependencySum.copy();
-        transitiveDependencySum = transitiveDependencySum.add(dependencyMatrix);
-        dependencyProduct = dependencyMatrix;
+    /**
+     * @param impactRows the compressed row storage of the impacts
+     * @param i the index of a process
+     * @return the impacts of the process, indexed by impact type id
+     */
+    protected HashMap<String, Impact> impactsOf(SparseColumnMatrix impactRows, int i) {
+        int[] pointers = impactRows.getColumnPointers();
+        int[] types = impactRows.getRowIndices();
+        double[] values = impactRows.getValues();
+        double conversionFactor = processes.get(i).getUnit().getConversionFactor();
+        HashMap<String, Impact> impacts = new HashMap<>();
+        for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+            Impact impact = new Impact(
+                    impactTypes.get(types[p]),
+                    new Value(values[p] * conversionFactor, impactUncertainty(i, types[p])));
+            impacts.put(impact.getType().getId(), impact);
+        }
+        return impacts;
+    }
 
-        uncertaintySum = uncertaintyMatrix;
-        uncertaintyProduct = uncertaintySum;
+    /**
+     * <p>
+     *     Changes the value of a coefficient and updates the results of the last run accordingly,
+     *     without running the whole calculation again.
+     * </p>
+     * <p>
+     *     The entries of the technology matrix are found from the derived relations of the coefficient.
+     *     The cumulative elementary flows and the impacts are corrected with the Woodbury identity
+     *     (see {@link LowRankUpdate}), which needs one solve for each process whose downstream relations changed.
+     *     If more processes than the maximum update rank are involved, or if the update fails,
+     *     the cumulative elementary flows are calculated again.
+     * </p>
+     * <p>
+     *     The solver of the technology system is kept: the successive updates are accumulated on top of it
+     *     (see {@link UpdatedSolver}), and it is only factorized again once the processes changed since
+     *     the factorization exceed the maximum update rank.
+     * </p>
+     * <p>
+     *     The calculated elementary flows and the impacts of the processes whose results moved are replaced.
+     *     The analytic uncertainties are propagated again, the Monte Carlo statistics are dropped.
+     * </p>
+     *
+     * @param coefficient the coefficient
+     * @param value the new value of the coefficient
+     * @return the processes whose results moved
+     */
+    public ArrayList<Process> updateCoefficient(Coefficient coefficient, Value value) {
+        if (null == impactMatrix) {
+            throw new IllegalStateException("The calculation must be run before updating a coefficient");
+        }
+        int n = processes.size();
+        TripletMatrixBuilder delta = new TripletMatrixBuilder(n, n);
+        TripletMatrixBuilder uncertaintyDelta = new TripletMatrixBuilder(n, n);
+        addRelationsContribution(coefficient, delta, uncertaintyDelta, -1.0);
+        coefficient.setValue(value);
+        addRelationsContribution(coefficient, delta, uncertaintyDelta, 1.0);
+        SparseColumnMatrix deltaMatrix = delta.build();
 
-        int maxIter = 0;
-        while (differenceGreaterThanThreshold(prevTransitiveDependencySum, transitiveDependencySum) && maxIter < 100) {
-            // value
-            prevTransitiveDependencySum = transitiveDependencySum.copy();
+        uncertaintyMatrix = addToMatrix(SparseColumnMatrix.fromMatrix(uncertaintyMatrix), uncertaintyDelta.build())
+                            .toCCSMatrix();
+        if (0 == deltaMatrix.cardinality()) {
+            return new ArrayList<>();
+        }
 
-            dependencyProduct = dependencyProduct.multiply(dependencyMatrix);
-            transitiveDependencySum = transitiveDependencySum.add(dependencyProduct);
+        LowRankUpdate update = new LowRankUpdate(deltaMatrix);
+        LinearSolver solver = getOperator();
+        boolean prepared = update.rank() <= maxUpdateRank && update.prepare(solver);
 
-            uncertaintyProduct = matrixProductUncertainty(uncertaintyProduct, uncertaintyMatrix);
-            uncertaintySum = matrixSumUncertainty(prevTransitiveDependencySum, uncertaintySum, dependencyProduct, uncertaintyProduct);
+        sparseDependencyMatrix = addToMatrix(sparseDependencyMatrix, deltaMatrix);
+        dependencyMatrix = sparseDependencyMatrix.toCCSMatrix();
+        transitiveDependencyMatrix = null;
+        processGraph = null;
+        spectralRadiusEstimator = null;
+        spectralRadius = Double.NaN;
+        queryCache.clear();
+        contributionAnalysis = null;
+        scenarioEngine = null;
 
-            maxIter++;
+        if (!prepared) {
+            log.info("Calculating again the results after the update of " + update.rank() + " processes");
+            calculateResults();
+            refreshUncertainties();
+            replaceResults(null);
+            return new ArrayList<>(processes);
         }
-        transitiveUncertaintyMatrix = uncertaintySum;
-        transitiveDependencyMatrix = transitiveDependencySum;
+
+        operator = accumulateUpdate(solver, deltaMatrix);
+        refreshUncertainties();
+        return applyUpdate(update);
     }
 
-    protected void ecologicalCumulatedFlowCalculation()
-    {
-        cumulativeEcologicalUncertaintyMatrix = new CCSMatrix(processes.size(), elementaryFlowTypes.size());
-        cumulativeEcologicalMatrix = new CCSMatrix(processes.size(), elementaryFlowTypes.size());
+    /**
+     * Adds a change of the technology matrix to the updates accumulated on top of the solver.
+     *
+     * @param solver the solver of the technology system before the change
+     * @param delta the change of the technology matrix
+     * @return the solver of the changed system, or null if it must be created again
+     */
+    protected LinearSolver accumulateUpdate(LinearSolver solver, SparseColumnMatrix delta) {
+        UpdatedSolver updated = solver instanceof UpdatedSolver
+                                ? (UpdatedSolver) solver
+                                : new UpdatedSolver(solver, processes.size());
+        if (!updated.add(delta)) {
+            log.info("The accumulated updates of the solver failed, it will be created again");
+            return null;
+        }
+        if (updated.rank() > maxUpdateRank) {
+            log.info(updated.rank() + " processes changed since the solver was created, it will be created again");
+            return null;
+        }
+        return updated;
+    }
+
+    /**
+     * Propagates again the analytic uncertainties after a change of the matrices.
+     * The Monte Carlo statistics would need the whole simulation: they are dropped, with a warning.
+     */
+    protected void refreshUncertainties() {
+        impactStatistics = null;
+        cumulativeEcologicalUncertaintyMatrix = null;
+        impactUncertaintyMatrix = null;
+        if (UncertaintyMode.ANALYTIC == uncertaintyMode) {
+            log.info("Propagating the uncertainties analytically again");
+            calculateAnalyticUncertainties();
+        }
+        else if (UncertaintyMode.MONTE_CARLO == uncertaintyMode) {
+            log.warn("The Monte Carlo statistics are dropped by the update: run the calculation again"
+                     + " to sample the uncertainties");
+        }
+    }
+
+    /**
+     * Adds the contributions of the derived relations of a coefficient to the technology matrices.
+     *
+     * @param coefficient the coefficient
+     * @param values the builder of the technology matrix
+     * @param uncertainties the builder of the uncertainty matrix
+     * @param sign 1 to add the contributions, -1 to remove them
+     */
+    protected void addRelationsContribution(Coefficient coefficient,
+                                            TripletMatrixBuilder values,
+                                            TripletMatrixBuilder uncertainties,
+                                            double sign) {
+        for (DerivedRelation relation : coefficient.getDerivedRelations()) {
+            int row = processIndex.indexOf(relation.getDestination());
+            int column = processIndex.indexOf(relation.getSource());
+            if (-1 != row && -1 != column) {
+                values.add(row, column, sign * relationValue(relation));
+                uncertainties.add(row, column, sign * relation.getCoeff().getValue().uncertainty);
+            }
+        }
+    }
 
+    /**
+     * Corrects the cumulative elementary flows and the impacts with a prepared update.
+     *
+     * @param update the update of the technology matrix
+     * @return the processes whose results moved
+     */
+    protected ArrayList<Process> applyUpdate(LowRankUpdate update) {
+        int[] sources = update.getSources();
+        int[] affectedRows = update.getAffectedRows();
+        int[] impactPointers = sparseFlowToImpactsMatrix.getColumnPointers();
+        int[] impactRows = sparseFlowToImpactsMatrix.getRowIndices();
+        double[] impactValues = sparseFlowToImpactsMatrix.getValues();
 
+        TripletMatrixBuilder flows = new TripletMatrixBuilder(processes.size(), elementaryFlowTypes.size());
+        TripletMatrixBuilder impacts = new TripletMatrixBuilder(processes.size(), impactTypes.size());
+        boolean[] moved = new boolean[processes.size()];
+        double[] sourceValues = new double[sources.length];
+        if (impactsOnly) {
+            for (int t = 0; t < impactTypes.size(); t++) {
+                for (int e = 0; e < sources.length; e++) {
+                    sourceValues[e] = impactMatrix.get(sources[e], t);
+                }
+                double[] corrections = update.correction(sourceValues);
+                for (int a = 0; a < affectedRows.length; a++) {
+                    if (0.0 != corrections[a]) {
+                        moved[affectedRows[a]] = true;
+                        impacts.add(affectedRows[a], t, corrections[a]);
+                    }
+                }
+            }
+            return applyCorrections(flows.build(), impacts.build(), moved);
+        }
         for (int j = 0; j < elementaryFlowTypes.size(); j++) {
+            for (int e = 0; e < sources.length; e++) {
+                sourceValues[e] = cumulativeEcologicalMatrix.get(sources[e], j);
+            }
+            double[] corrections = update.correction(sourceValues);
+            for (int a = 0; a < affectedRows.length; a++) {
+                if (0.0 != corrections[a]) {
+                    moved[affectedRows[a]] = true;
+                    flows.add(affectedRows[a], j, corrections[a]);
+                    for (int p = impactPointers[j]; p < impactPointers[j + 1]; p++) {
+                        impacts.add(affectedRows[a], impactRows[p], corrections[a] * impactValues[p]);
+                    }
+                }
+            }
+        }
+        return applyCorrections(flows.build(), impacts.build(), moved);
+    }
 
-            Vector column = ecologicalMatrix.getColumn(j);
-            Vector uncertaintyColumn = ecologicalUncertaintyMatrix.getColumn(j);
+    /**
+     * Adds corrections to the cumulative elementary flows and to the impacts,
+     * and replaces the results of the processes whose results moved.
+     *
+     * @param flows the corrections of the cumulative elementary flows
+     * @param impacts the corrections of the impacts
+     * @param moved the processes whose results moved, by index
+     * @return the processes whose results moved
+     */
+    protected ArrayList<Process> applyCorrections(SparseColumnMatrix flows, SparseColumnMatrix impacts, boolean[] moved) {
+        if (null != cumulativeEcologicalMatrix) {
+            addInPlace(cumulativeEcologicalMatrix, flows);
+        }
+        addInPlace(impactMatrix, impacts);
 
-            for (int i = 0; i < transitiveDependencyMatrix.rows(); i++) {
+        replaceResults(moved);
+        ArrayList<Process> movedProcesses = new ArrayList<>();
+        for (int i = 0; i < processes.size(); i++) {
+            if (moved[i]) {
+                movedProcesses.add(processes.get(i));
+            }
+        }
+        log.info("Updated the results of " + movedProcesses.size() + " processes");
+        return movedProcesses;
+    }
 
-                double acc = 0.0;
-                double accUncertainty = 0.0;
+    /**
+     * <p>
+     *     Updates the results of the last run after a change of the input elementary flows of the processes,
+     *     without calculating the cumulative technology matrix or factorizing the technology system again.
+     * </p>
+     * <p>
+     *     The ecology matrix is created again and compared with the one of the last run:
+     *     only the elementary flow types whose column changed are solved, with the difference of the columns
+     *     as right-hand side. The cumulative technology matrix of the power series is reused if it was kept,
+     *     the solver of the technology system otherwise.
+     * </p>
+     * <p>
+     *     The technology matrix must not have changed since the last run (see {@link #updateCoefficient}).
+     *     If processes or elementary flow types were added to the ontology, the calculation is run again.
+     * </p>
+     *
+     * @return the processes whose results moved
+     * @throws DivergentCalculationException if the calculation is run again and diverges
+     */
+    public ArrayList<Process> updateElementaryFlows() throws DivergentCalculationException {
+        if (null == impactMatrix) {
+            throw new IllegalStateException("The calculation must be run before updating the elementary flows");
+        }
+        if (processIndex.size() != processes.size()
+            || elementaryFlowTypeIndex.size() != elementaryFlowTypes.size()) {
+            log.info("New processes or elementary flow types found, running the calculation again");
+            run();
+            replaceResults(null);
+            return new ArrayList<>(processes);
+        }
 
-                for (int k = 0; k < transitiveDependencyMatrix.columns(); k++) {
-                    double emission = transitiveDependencyMatrix.get(i, k) * column.get(k);
-                    double emissionUncertainty = productUncertainty(transitiveUncertaintyMatrix.get(i, k), uncertaintyColumn.get(k));
-                    accUncertainty = sumUncertainty(acc, accUncertainty,
-                            emission, emissionUncertainty);
-                    acc += emission;
+        SparseColumnMatrix previous = sparseEcologicalMatrix;
+        createEcologicalMatrices();
+        SparseColumnMatrix delta = addToMatrix(sparseEcologicalMatrix, previous.scale(-1.0));
+        if (impactsOnly) {
+            // the right-hand sides are the direct impacts
+            delta = SparseColumnMatrix.fromMatrix(delta.toCCSMatrix().multiply(flowToImpactsMatrix.transpose()));
+        }
+
+        // the empty columns have no entry: the changed columns share the entries of the difference
+        int[] pointers = delta.getColumnPointers();
+        int[] changed = new int[delta.columns()];
+        int[] changedPointers = new int[delta.columns() + 1];
+        int count = 0;
+        for (int j = 0; j < delta.columns(); j++) {
+            if (pointers[j + 1] > pointers[j]) {
+                changed[count] = j;
+                changedPointers[count + 1] = pointers[j + 1];
+                count++;
+            }
+        }
+        queryCache.clear();
+        contributionAnalysis = null;
+        scenarioEngine = null;
+        refreshUncertainties();
+        if (0 == count) {
+            return new ArrayList<>();
+        }
+        log.info("Solving the technology system for " + count
+                 + (impactsOnly ? " changed impact types" : " changed elementary flow types"));
+        SparseColumnMatrix changedColumns = new SparseColumnMatrix(
+                delta.rows(), count, Arrays.copyOf(changedPointers, count + 1), delta.getRowIndices(), delta.getValues());
+        SparseColumnMatrix solutions;
+        if (null != transitiveDependencyMatrix) {
+            solutions = SparseColumnMatrix.fromMatrix(transitiveDependencyMatrix.multiply(changedColumns.toCCSMatrix()));
+        }
+        else {
+            solutions = SparseColumnMatrix.fromMatrix(solveColumns(getOperator(), changedColumns));
+        }
+
+        int[] impactPointers = sparseFlowToImpactsMatrix.getColumnPointers();
+        int[] impactRows = sparseFlowToImpactsMatrix.getRowIndices();
+        double[] impactValues = sparseFlowToImpactsMatrix.getValues();
+        int[] solutionPointers = solutions.getColumnPointers();
+        int[] solutionRows = solutions.getRowIndices();
+        double[] solutionValues = solutions.getValues();
+        TripletMatrixBuilder flows = new TripletMatrixBuilder(
+                processes.size(), elementaryFlowTypes.size(), solutions.cardinality());
+        TripletMatrixBuilder impacts = new TripletMatrixBuilder(processes.size(), impactTypes.size());
+        boolean[] moved = new boolean[processes.size()];
+        for (int c = 0; c < count; c++) {
+            int j = changed[c];
+            for (int q = solutionPointers[c]; q < solutionPointers[c + 1]; q++) {
+                int i = solutionRows[q];
+                moved[i] = true;
+                if (impactsOnly) {
+                    impacts.add(i, j, solutionValues[q]);
+                    continue;
+                }
+                flows.add(i, j, solutionValues[q]);
+                for (int p = impactPointers[j]; p < impactPointers[j + 1]; p++) {
+                    impacts.add(i, impactRows[p], solutionValues[q] * impactValues[p]);
                 }
-                cumulativeEcologicalUncertaintyMatrix.set(i, j, accUncertainty);
-                cumulativeEcologicalMatrix.set(i, j, acc);
             }
         }
+        return applyCorrections(flows.build(), impacts.build(), moved);
     }
 
-    protected Matrix matrixProductUncertainty(Matrix u1, Matrix u2)
-    {
-        Matrix r = new CCSMatrix(processes.size(), processes.size());
-        for (int i = 0; i < u1.rows(); i++) {
-            for (int j = 0; j < u2.rows(); j++) {
-                r.set(i, j, productUncertainty(u1.get(i,j), u2.get(i,j)));
+    /**
+     * @param matrix a matrix
+     * @param delta a matrix of the same size
+     * @return the sum of the two matrices
+     */
+    protected SparseColumnMatrix addToMatrix(SparseColumnMatrix matrix, SparseColumnMatrix delta) {
+        return matrix.add(delta);
+    }
+
+    /**
+     * Adds corrections to the entries of a result matrix, without copying the whole matrix.
+     *
+     * @param matrix the matrix, changed in place
+     * @param corrections the corrections, of the same size
+     */
+    protected void addInPlace(Matrix matrix, SparseColumnMatrix corrections) {
+        int[] pointers = corrections.getColumnPointers();
+        int[] rows = corrections.getRowIndices();
+        double[] values = corrections.getValues();
+        for (int j = 0; j < corrections.columns(); j++) {
+            for (int p = pointers[j]; p < pointers[j + 1]; p++) {
+                matrix.set(rows[p], j, matrix.get(rows[p], j) + values[p]);
             }
         }
-        return r;
     }
 
-    protected double productUncertainty(double u1, double u2)
-    {
-        if (Math.pow(u1, 2) + Math.pow(u2, 2) == 0.0)
-            return 0.0;
-        return Math.sqrt(Math.pow(u1, 2) + Math.pow(u2, 2));
+    /**
+     * Replaces the calculated elementary flows and the impacts of some processes with the current results.
+     *
+     * @param selected the processes to replace, by index, or null to replace all the processes
+     */
+    protected void replaceResults(boolean[] selected) {
+        SparseColumnMatrix flowRows = null == cumulativeEcologicalMatrix ? null : rowsOf(cumulativeEcologicalMatrix, selected);
+        SparseColumnMatrix impactRows = rowsOf(impactMatrix, selected);
+        for (int i = 0; i < processes.size(); i++) {
+            if (null == selected || selected[i]) {
+                if (null != flowRows) {
+                    processes.get(i).setCalculatedFlows(calculatedFlowsOf(flowRows, i));
+                }
+                processes.get(i).setImpacts(impactsOf(impactRows, i));
+            }
+        }
     }
 
-    protected Matrix matrixSumUncertainty(Matrix v1, Matrix u1, Matrix v2, Matrix u2)
-    {
-        Matrix r = new CCSMatrix(processes.size(), processes.size());
-        for (int i = 0; i < u1.rows(); i++) {
-            for (int j = 0; j < u1.columns(); j++) {
-                r.set(i,j,sumUncertainty(v1.get(i,j), u1.get(i,j), v2.get(i,j), u2.get(i,j)));
+    /**
+     * <p>
+     *     Recalculates the impacts from the cumulative elementary flows of the last run,
+     *     after a change of the components of the impact types only.
+     * </p>
+     * <p>
+     *     The flow to impacts matrices are created again and multiplied by the cumulative elementary flows
+     *     kept in memory, then the impacts of every process are replaced.
+     *     With the ANALYTIC uncertainty mode the uncertainties of the impacts are propagated again,
+     *     with the MONTE_CARLO mode they are dropped as they would need the whole simulation.
+     * </p>
+     */
+    public void refreshImpacts() {
+        if (null == cumulativeEcologicalMatrix) {
+            throw new IllegalStateException("The calculation must be run, without the impacts only mode,"
+                                            + " before refreshing the impacts");
+        }
+        createFlowToImpactsMatrices();
+        impactMatrix = cumulativeEcologicalMatrix.multiply(flowToImpactsMatrix.transpose());
+        impactStatistics = null;
+        impactUncertaintyMatrix = null;
+        if (null != cumulativeEcologicalUncertaintyMatrix) {
+            UncertainMatrix flows = UncertainMatrix.of(
+                    SparseColumnMatrix.fromMatrix(cumulativeEcologicalMatrix),
+                    SparseColumnMatrix.fromMatrix(cumulativeEcologicalUncertaintyMatrix));
+            UncertainMatrix impacts = new AnalyticUncertaintyPropagation().multiply(
+                    flows,
+                    UncertainMatrix.of(sparseFlowToImpactsMatrix,
+                                       SparseColumnMatrix.fromMatrix(flowToImpactsUncertaintyMatrix)).transpose());
+            impactUncertaintyMatrix = impacts.getUncertaintyMatrix().toCCSMatrix();
+        }
+        queryCache.clear();
+        contributionAnalysis = null;
+        scenarioEngine = null;
+        SparseColumnMatrix impactRows = rowsOf(impactMatrix);
+        for (int i = 0; i < processes.size(); i++) {
+            processes.get(i).setImpacts(impactsOf(impactRows, i));
+        }
+    }
+
+    /**
+     * Finds the paths of derived relations upstream of a process contributing the most to one of its impacts,
+     * see {@link ContributionAnalysis}. The analysis is kept for the next calls until the results change.
+     *
+     * @param process the analysed process
+     * @param impactType the analysed impact type
+     * @param count the maximum number of paths returned, at least 1
+     * @param cutoff the fraction of the impact of the process under which a branch is not explored, in ]0, 1]
+     * @return the paths with the largest direct contributions, by decreasing contribution
+     */
+    public ArrayList<ContributionPath> analyseContributions(Process process,
+                                                           ImpactType impactType,
+                                                           int count,
+                                                           double cutoff) {
+        if (null == impactMatrix) {
+            throw new IllegalStateException("The calculation must be run before analysing the contributions");
+        }
+        if (null == contributionAnalysis) {
+            contributionAnalysis = new ContributionAnalysis(
+                    processIndex,
+                    impactTypeIndex,
+                    SparseColumnMatrix.fromMatrix(impactMatrix),
+                    directImpactMatrix());
+        }
+        return contributionAnalysis.analyse(process, impactType, count, cutoff);
+    }
+
+    /**
+     * <p>
+     *     Calculates the sensitivity of an impact of a process to the value of every coefficient,
+     *     at the cost of a single solve of the transposed technology system.
+     * </p>
+     * <p>
+     *     The impact is <code>h = e<sub>p</sub><sup>T</sup> (I - R)<sup>-1</sup> g</code>, where g contains
+     *     the direct impacts of the processes. With <code>x = (I - R)<sup>-1</sup> g</code> the impacts of the last run
+     *     and <code>y</code> the solution of the adjoint system <code>(I - R)<sup>T</sup> y = e<sub>p</sub></code>,
+     *     the derivative of h with respect to the entry <code>R[i, j]</code> is <code>y<sub>i</sub> x<sub>j</sub></code>.
+     *     The gradient with respect to a coefficient sums these derivatives over its derived relations,
+     *     times the derivative of the multiplier of each relation with respect to the value of the coefficient.
+     * </p>
+     *
+     * @param process the process
+     * @param impactType the impact type
+     * @return the sensitivities to the coefficients used by the calculation,
+     *         by decreasing absolute elasticity, the coefficients without influence being left out
+     */
+    public ArrayList<CoefficientSensitivity> sensitivities(Process process, ImpactType impactType) {
+        if (null == impactMatrix) {
+            throw new IllegalStateException("The calculation must be run before calculating the sensitivities");
+        }
+        int p = processIndex.indexOf(process);
+        int t = impactTypeIndex.indexOf(impactType);
+        if (-1 == p || p >= processes.size() || -1 == t || t >= impactTypes.size()) {
+            throw new IllegalArgumentException("The process " + process.getId() + " or the impact type "
+                                               + impactType.getId() + " is not in the calculation");
+        }
+        int n = processes.size();
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = impactMatrix.get(i, t);
+        }
+        double[] unit = new double[n];
+        double[] y = new double[n];
+        unit[p] = 1.0;
+        getOperator().solveTransposed(unit, y);
+
+        double scale = process.getUnit().getConversionFactor();
+        double impact = x[p];
+        IdentityHashMap<Coefficient, Boolean> visited = new IdentityHashMap<>();
+        ArrayList<CoefficientSensitivity> sensitivities = new ArrayList<>();
+        for (Process upstream : processes) {
+            for (DerivedRelation relation : upstream.getDownstreamDerivedRelations()) {
+                Coefficient coefficient = relation.getCoeff();
+                if (null != visited.put(coefficient, Boolean.TRUE)) {
+                    continue;
+                }
+                double value = coefficient.getValue().value;
+                double gradient = 0.0;
+                for (DerivedRelation coefficientRelation : coefficient.getDerivedRelations()) {
+                    int row = processIndex.indexOf(coefficientRelation.getDestination());
+                    int column = processIndex.indexOf(coefficientRelation.getSource());
+                    if (-1 == row || -1 == column || row >= n || column >= n) {
+                        continue;
+                    }
+                    double derivative;
+                    if (-1 == coefficientRelation.getExponent()) {
+                        // d(1 / (v f)) / dv = - (1 / (v f)) / v
+                        derivative = 0.0 == value ? 0.0 : -coefficientRelation.getMultiplier() / value;
+                    }
+                    else {
+                        derivative = coefficient.getUnit().getConversionFactor();
+                    }
+                    gradient += y[row] * x[column] * derivative;
+                }
+                if (0.0 != gradient) {
+                    double elasticity = 0.0 == impact ? 0.0 : gradient * value / impact;
+                    sensitivities.add(new CoefficientSensitivity(coefficient, gradient * scale, elasticity));
+                }
             }
         }
-        return r;
+        Collections.sort(sensitivities, new Comparator<CoefficientSensitivity>() {
+            @Override
+            public int compare(CoefficientSensitivity a, CoefficientSensitivity b) {
+                return Double.compare(Math.abs(b.getElasticity()), Math.abs(a.getElasticity()));
+            }
+        });
+        return sensitivities;
     }
 
-    protected double sumUncertainty(double v1, double u1, double v2, double u2)
-    {
-        if (Math.abs(v1 + v2) == 0)
-            return 0.0;
-        else if (Math.pow(v1 * u1, 2) + Math.pow(v2 * u2, 2) == 0.0)
-            return 0.0;
-        return Math.sqrt(Math.pow(v1 * u1, 2) + Math.pow(v2 * u2, 2)) / Math.abs(v1 + v2);
+    /**
+     * <p>
+     *     Calculates the impacts of every process for each scenario, without changing the coefficients
+     *     nor the results of the calculation.
+     * </p>
+     * <p>
+     *     The matrices are created once, and <code>I - R</code> is factorized once for all the scenarios
+     *     (see {@link ScenarioEngine}): a scenario only changes the entries of the technology matrix
+     *     of the derived relations of its coefficients. The scenarios are evaluated concurrently
+     *     by the configured number of workers and their impacts are sent to the sink as soon as they are calculated.
+     * </p>
+     *
+     * @param scenarios the scenarios
+     * @param sink the receiver of the impacts, it must be thread safe
+     * @throws SingularMatrixException if the technology system of the ontology is singular
+     */
+    public void runScenarios(List<Scenario> scenarios, final ScenarioSink sink) throws SingularMatrixException {
+        if (null == sparseDependencyMatrix) {
+            prepare();
+        }
+        if (null == scenarioEngine) {
+            scenarioEngine = new ScenarioEngine(sparseDependencyMatrix, directImpactMatrix());
+        }
+        log.info("Evaluating " + scenarios.size() + " scenarios");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, scenarios.size())));
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (final Scenario scenario : scenarios) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        evaluateScenario(scenario, sink);
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The evaluation of the scenarios was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("The evaluation of a scenario failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
     }
 
-    protected Matrix sqrtMatrix(Matrix m)
-    {
-        Matrix r = m.copy();
-        for (int i = 0; i < m.rows(); i++) {
-            for (int j = 0; j < m.columns(); j++) {
-                r.set(i, j, m.get(i,j) == 0.0 ? 0.0 : Math.sqrt(m.get(i,j)));
+    /**
+     * @param scenario a scenario
+     * @param sink the receiver of the impacts
+     */
+    protected void evaluateScenario(Scenario scenario, ScenarioSink sink) {
+        TripletMatrixBuilder delta = new TripletMatrixBuilder(processes.size(), processes.size());
+        for (Map.Entry<Coefficient, Value> override : scenario.getOverrides().entrySet()) {
+            for (DerivedRelation relation : override.getKey().getDerivedRelations()) {
+                int row = processIndex.indexOf(relation.getDestination());
+                int column = processIndex.indexOf(relation.getSource());
+                if (-1 != row && -1 != column && row < processes.size() && column < processes.size()) {
+                    delta.add(row, column, relation.getMultiplier(override.getValue().value) - relation.getMultiplier());
+                }
             }
         }
-        return r;
+        double[][] impacts;
+        try {
+            impacts = scenarioEngine.evaluate(delta.build());
+        } catch (SingularMatrixException e) {
+            log.warn("The scenario " + scenario.getId() + " could not be calculated: " + e.getMessage());
+            sink.failed(scenario, e);
+            return;
+        }
+        for (int i = 0; i < processes.size(); i++) {
+            double conversionFactor = processes.get(i).getUnit().getConversionFactor();
+            HashMap<String, Impact> processImpacts = new HashMap<>();
+            for (int t = 0; t < impactTypes.size(); t++) {
+                if (0.0 != impacts[t][i]) {
+                    Impact impact = new Impact(impactTypes.get(t), new Value(impacts[t][i] * conversionFactor, 0.0));
+                    processImpacts.put(impact.getType().getId(), impact);
+                }
+            }
+            if (!processImpacts.isEmpty()) {
+                sink.accept(scenario, processes.get(i), processImpacts);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     *     Calculates the cumulative elementary flows and the impacts of some processes only,
+     *     without calculating the results of the other processes.
+     * </p>
+     * <p>
+     *     The row of a process is obtained by solving the transposed system
+     *     <code>(I - R)<sup>T</sup> y = e<sub>i</sub></code>: the cumulative elementary flows are
+     *     <code>y<sup>T</sup> C</code>. The solver is created by the first query and reused by the next ones,
+     *     as are the results of the processes already queried, until the matrices change.
+     * </p>
+     *
+     * @param queried the processes
+     * @return the results, in the order of the processes
+     */
+    public ArrayList<ProcessResult> query(Process... queried) {
+        if (null == sparseDependencyMatrix) {
+            prepare();
+        }
+        LinearSolver solver = getOperator();
+        ArrayList<ProcessResult> results = new ArrayList<>();
+        double[] unit = new double[processes.size()];
+        double[] y = new double[processes.size()];
+        for (Process process : queried) {
+            ProcessResult result = queryCache.get(process);
+            if (null == result) {
+                int i = processIndex.indexOf(process);
+                // the processes added to the ontology after the preparation are not in the matrices
+                if (-1 == i || i >= processes.size()) {
+                    throw new IllegalArgumentException("The process " + process.getId() + " is not in the calculation");
+                }
+                unit[i] = 1.0;
+                solver.solveTransposed(unit, y);
+                unit[i] = 0.0;
+                result = createResult(process, y);
+                queryCache.put(process, result);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * @param process a process
+     * @param y the solution of the transposed system for the process
+     * @return the cumulative elementary flows and the impacts of the process
+     */
+    protected ProcessResult createResult(Process process, double[] y) {
+        double conversionFactor = process.getUnit().getConversionFactor();
+        int[] cPointers = sparseEcologicalMatrix.getColumnPointers();
+        int[] cRows = sparseEcologicalMatrix.getRowIndices();
+        double[] cValues = sparseEcologicalMatrix.getValues();
+        int[] wPointers = sparseFlowToImpactsMatrix.getColumnPointers();
+        int[] wRows = sparseFlowToImpactsMatrix.getRowIndices();
+        double[] wValues = sparseFlowToImpactsMatrix.getValues();
+
+        HashMap<String, ElementaryFlow> flows = new HashMap<>();
+        double[] impactValues = new double[impactTypes.size()];
+        for (int j = 0; j < elementaryFlowTypes.size(); j++) {
+            double value = 0.0;
+            for (int p = cPointers[j]; p < cPointers[j + 1]; p++) {
+                value += y[cRows[p]] * cValues[p];
+            }
+            if (value != 0.0) {
+                ElementaryFlow flow = new ElementaryFlow(
+                        elementaryFlowTypes.get(j),
+                        new Value(value * conversionFactor, 0.0),
+                        DataSource.CALCULATION);
+                flows.put(flow.getType().getId(), flow);
+                for (int p = wPointers[j]; p < wPointers[j + 1]; p++) {
+                    impactValues[wRows[p]] += value * wValues[p];
+                }
+            }
+        }
+
+        HashMap<String, Impact> impacts = new HashMap<>();
+        for (int t = 0; t < impactTypes.size(); t++) {
+            if (impactValues[t] != 0.0) {
+                Impact impact = new Impact(impactTypes.get(t), new Value(impactValues[t] * conversionFactor, 0.0));
+                impacts.put(impact.getType().getId(), impact);
+            }
+        }
+        return new ProcessResult(process, flows, impacts);
+    }
+
+    /**
+     * Returns the solver of the current technology system, creating it if needed:
+     * the solver of the configured type or, for the power series, a sparse LU factorization
+     * and Gauss-Seidel iterations if the factorization fails.
+     *
+     * @return the solver of the current technology system
+     */
+    protected LinearSolver getOperator() {
+        if (null == operator) {
+            operator = createSolver();
+        }
+        if (null == operator) {
+            try {
+                operator = SparseLU.factorize(sparseDependencyMatrix.minusFromIdentity());
+            } catch (SingularMatrixException e) {
+                log.warn(e.getMessage() + " - using Gauss-Seidel iterations instead");
+                operator = new VectorIterationSolver(
+                        sparseDependencyMatrix, threshold, relativeThreshold, maxIterations, true);
+            }
+        }
+        return operator;
+    }
+
+    /**
+     * @return the method used to calculate the cumulative elementary flows
+     */
+    public SolverType getSolverType() {
+        return solverType;
+    }
+
+    /**
+     * @param solverType the method used to calculate the cumulative elementary flows
+     */
+    public void setSolverType(SolverType solverType) {
+        this.solverType = solverType;
+    }
+
+    /**
+     * @return the convergence threshold of the iterative methods
+     */
+    public Double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param threshold the convergence threshold of the iterative methods
+     */
+    public void setThreshold(Double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return the convergence threshold of the iterative methods on the relative changes, disabled if zero
+     */
+    public Double getRelativeThreshold() {
+        return relativeThreshold;
+    }
+
+    /**
+     * @param relativeThreshold the convergence threshold of the iterative methods on the relative changes,
+     *                          disabled if zero
+     */
+    public void setRelativeThreshold(Double relativeThreshold) {
+        this.relativeThreshold = relativeThreshold;
+    }
+
+    /**
+     * @return the maximum number of iterations of the iterative methods
+     */
+    public Integer getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @param maxIterations the maximum number of iterations of the iterative methods
+     */
+    public void setMaxIterations(Integer maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @return the number of workers solving the cumulative elementary flows
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of workers solving the cumulative elementary flows
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the maximum number of processes whose downstream relations changed
+     *         for which the results are updated instead of calculated again
+     */
+    public int getMaxUpdateRank() {
+        return maxUpdateRank;
+    }
+
+    /**
+     * @param maxUpdateRank the maximum number of processes whose downstream relations changed
+     *                      for which the results are updated instead of calculated again
+     */
+    public void setMaxUpdateRank(int maxUpdateRank) {
+        this.maxUpdateRank = maxUpdateRank;
+    }
+
+    /**
+     * @return how the uncertainties of the results are calculated
+     */
+    public UncertaintyMode getUncertaintyMode() {
+        return uncertaintyMode;
+    }
+
+    /**
+     * @param uncertaintyMode how the uncertainties of the results are calculated
+     */
+    public void setUncertaintyMode(UncertaintyMode uncertaintyMode) {
+        this.uncertaintyMode = uncertaintyMode;
+    }
+
+    /**
+     * @return the number of samples of the Monte Carlo simulation
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @param sampleCount the number of samples of the Monte Carlo simulation
+     */
+    public void setSampleCount(int sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+
+    /**
+     * @return the seed of the Monte Carlo simulation, the worker w using seed + w
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param seed the seed of the Monte Carlo simulation, the worker w using seed + w
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the estimate of the spectral radius of the technology matrix of the last run, NaN if not estimated
+     */
+    public double getSpectralRadius() {
+        return spectralRadius;
+    }
+
+    /**
+     * @return true if only the impacts are calculated, without the cumulative elementary flows
+     */
+    public boolean isImpactsOnly() {
+        return impactsOnly;
+    }
+
+    /**
+     * In the impacts only mode the cumulative elementary flows are neither calculated nor created,
+     * the system being solved directly for the impacts. The impacts cannot be refreshed in this mode.
+     *
+     * @param impactsOnly true to calculate only the impacts
+     */
+    public void setImpactsOnly(boolean impactsOnly) {
+        this.impactsOnly = impactsOnly;
+    }
+
+    /**
+     * @return the file the results are persisted into, or null
+     */
+    public File getStateFile() {
+        return stateFile;
+    }
+
+    /**
+     * If set, the results are saved into this file after each run, and loaded back instead of being calculated
+     * by the next runs as long as the ontology and the configuration of the calculation do not change.
+     * The results of a Monte Carlo simulation are not persisted.
+     *
+     * @param stateFile the file the results are persisted into, or null
+     */
+    public void setStateFile(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * @param process a process
+     * @param impactType an impact type
+     * @return the statistics of the impact sampled by the Monte Carlo simulation of the last run, or null
+     */
+    public RunningStatistics getImpactStatistics(Process process, ImpactType impactType) {
+        int i = processIndex.indexOf(process);
+        int j = impactTypeIndex.indexOf(impactType);
+        if (null == impactStatistics || -1 == i || -1 == j) {
+            return null;
+        }
+        return impactStatistics[i][j];
     }
 }
@@ -44,14 +44,19 @@ public final class CarbonOntology {
 
     protected HashSet<Process> processes;
     protected HashSet<Coefficient> coefficients;
+    protected HashMap<ElementKey, Process> processesByKey;
+    protected HashMap<ElementKey, Coefficient> coefficientsByKey;
+    protected IndexRegistry<Process> processIndex;
 
     protected HashMap<String, SourceRelation> sourceRelations;
     protected ArrayList<DerivedRelation> derivedRelations;
 
     protected TypeCategory elementaryFlowTypesTree;
     protected HashMap<String, ElementaryFlowType> elementaryFlowTypes;
+    protected IndexRegistry<ElementaryFlowType> elementaryFlowTypeIndex;
     protected TypeCategory impactTypesTree;
     protected HashMap<String, ImpactType> impactTypes;
+    protected IndexRegistry<ImpactType> impactTypeIndex;
     protected HashSet<RelationType> relationTypes;
 
     protected HashMap<String, Dimension> dimensions;
@@ -85,11 +90,16 @@ public final class CarbonOntology {
         coefficientGroups = new HashMap<>();
         processes = new HashSet<>();
         coefficients = new HashSet<>();
+        processesByKey = new HashMap<>();
+        coefficientsByKey = new HashMap<>();
+        processIndex = new IndexRegistry<>();
         references = new HashMap<>();
         sourceRelations = new HashMap<>();
         derivedRelations = new ArrayList<>();
         elementaryFlowTypes = new HashMap<>();
+        elementaryFlowTypeIndex = new IndexRegistry<>();
         impactTypes = new HashMap<>();
+        impactTypeIndex = new IndexRegistry<>();
         dimensions = new HashMap<>();
     }
 
@@ -101,15 +111,21 @@ public final class CarbonOntology {
      * @throws NoElementFoundException
      */
     public Coefficient findCoefficient(Dimension keywords, Unit unit) throws NoElementFoundException {
-        Coefficient temporaryCoefficient = new Coefficient(keywords.keywords, unit, new Value(0.0,0.0));
-        if (coefficients.contains(temporaryCoefficient)) {
-            for (Coefficient coefficient: coefficients) {
-                if (coefficient.equals(temporaryCoefficient)) {
-                    return coefficient;
-                }
-            }
+        Coefficient coefficient = getCoefficient(keywords, unit);
+        if (null == coefficient) {
+            throw new NoElementFoundException("No coefficient found with keywords " + keywords + " and unit " + unit);
         }
-        throw new NoElementFoundException("No coefficient found with keywords " + keywords + " and unit " + unit);
+        return coefficient;
+    }
+
+    /**
+     * Returns a coefficient that matches a set of keywords and an unit, without throwing when there is none
+     * @param keywords A set of keywords
+     * @param unit An unit
+     * @return The matching coefficient, or null
+     */
+    public Coefficient getCoefficient(Dimension keywords, Unit unit) {
+        return coefficientsByKey.get(ElementKey.of(keywords, unit));
     }
 
     /**
@@ -120,15 +136,21 @@ public final class CarbonOntology {
      * @throws NoElementFoundException
      */
     public Process findProcess(Dimension keywords, Unit unit) throws NoElementFoundException {
-        Process temporaryProcess = new Process(keywords.keywords, unit);
-        if (processes.contains(temporaryProcess)) {
-            for (Process process: processes) {
-                if (process.equals(temporaryProcess)) {
-                    return process;
-                }
-            }
+        Process process = getProcess(keywords, unit);
+        if (null == process) {
+            throw new NoElementFoundException("No process found with keywords " + keywords + " and unit " + unit);
         }
-        throw new NoElementFoundException("No process found with keywords " + keywords + " and unit " + unit);
+        return process;
+    }
+
+    /**
+     * Returns a process that matches a set of keywords and an unit, without throwing when there is none
+     * @param keywords A set of keywords
+     * @param unit An unit
+     * @return The matching process, or null
+     */
+    public Process getProcess(Dimension keywords, Unit unit) {
+        return processesByKey.get(ElementKey.of(keywords, unit));
     }
 
     /**
@@ -181,11 +203,13 @@ public final class CarbonOntology {
                     + " before extracting the elementary flow types");
         }
         elementaryFlowTypes = new HashMap<>();
+        elementaryFlowTypeIndex = new IndexRegistry<>();
         for (Object categoryObj : elementaryFlowTypesTree.getChildren()) {
             Category category = (Category) categoryObj;
             for (Object obj : category.getChildren()) {
                 ElementaryFlowType type = (ElementaryFlowType) obj;
                 elementaryFlowTypes.put(type.getId(), type);
+                elementaryFlowTypeIndex.register(type);
             }
         }
     }
@@ -201,6 +225,13 @@ public final class CarbonOntology {
         return elementaryFlowTypes;
     }
 
+    /**
+     * @return the dense indexes of the elementary flow types, following their order in the tree
+     */
+    public IndexRegistry<ElementaryFlowType> getElementaryFlowTypeIndex() {
+        return elementaryFlowTypeIndex;
+    }
+
     /**
      * Return an elementary flow type from it's id
      *
@@ -250,11 +281,13 @@ public final class CarbonOntology {
                     + " before extracting the impact types");
         }
         impactTypes = new HashMap<>();
+        impactTypeIndex = new IndexRegistry<>();
         for (Object categoryObj : impactTypesTree.getChildren()) {
             Category category = (Category) categoryObj;
             for (Object obj : category.getChildren()) {
                 ImpactType type = (ImpactType) obj;
                 impactTypes.put(type.getId(), type);
+                impactTypeIndex.register(type);
             }
         }
     }
@@ -268,6 +301,13 @@ public final class CarbonOntology {
         return impactTypes;
     }
 
+    /**
+     * @return the dense indexes of the impact types, following their order in the tree
+     */
+    public IndexRegistry<ImpactType> getImpactTypeIndex() {
+        return impactTypeIndex;
+    }
+
     /**
      * Return an impact type from it's id
      *
@@ -413,6 +453,15 @@ public final class CarbonOntology {
                     + " whith id: " + process.getId() + " already exists");
         }
         processes.add(process);
+        processesByKey.put(ElementKey.of(process), process);
+        processIndex.register(process);
+    }
+
+    /**
+     * @return the dense indexes of the processes, in the order they were added
+     */
+    public IndexRegistry<Process> getProcessIndex() {
+        return processIndex;
     }
 
     /**
@@ -436,6 +485,7 @@ public final class CarbonOntology {
                     + " whith id: " + coefficient.getId() + " already exists");
         }
         coefficients.add(coefficient);
+        coefficientsByKey.put(ElementKey.of(coefficient), coefficient);
     }
 
     /**
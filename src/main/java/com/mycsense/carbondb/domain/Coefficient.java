@@ -23,13 +23,13 @@
 package com.mycsense.carbondb.domain;
 
 import java.util.HashSet;
-import java.util.TreeSet;
+import java.util.SortedSet;
 
 public class Coefficient extends SingleElement {
     protected Value value;
     protected HashSet<DerivedRelation> derivedRelations;
 
-    public Coefficient(TreeSet<Keyword> keywords, Unit unit, Value value) {
+    public Coefficient(SortedSet<Keyword> keywords, Unit unit, Value value) {
         super(keywords, unit);
         this.value = value;
         derivedRelations = new HashSet<>();
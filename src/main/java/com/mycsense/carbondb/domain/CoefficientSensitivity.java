@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain;
+
+/**
+ * The sensitivity of an impact of a process to the value of a coefficient.
+ */
+public class CoefficientSensitivity {
+    protected Coefficient coefficient;
+    protected double gradient;
+    protected double elasticity;
+
+    public CoefficientSensitivity(Coefficient coefficient, double gradient, double elasticity) {
+        this.coefficient = coefficient;
+        this.gradient = gradient;
+        this.elasticity = elasticity;
+    }
+
+    public Coefficient getCoefficient() {
+        return coefficient;
+    }
+
+    /**
+     * @return the derivative of the impact with respect to the value of the coefficient
+     */
+    public double getGradient() {
+        return gradient;
+    }
+
+    /**
+     * @return the relative change of the impact for a relative change of the value of the coefficient,
+     *         comparable between coefficients of different units
+     */
+    public double getElasticity() {
+        return elasticity;
+    }
+
+    public String toString() {
+        return coefficient.getId() + ": " + elasticity;
+    }
+}
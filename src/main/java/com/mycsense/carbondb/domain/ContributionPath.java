@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ *     A chain of derived relations upstream of a process, as found by a contribution analysis.
+ * </p>
+ * <p>
+ *     The first relation has the analysed process as destination, the source of each relation being
+ *     the destination of the next one. The direct contribution is the impact caused by the elementary flows
+ *     of the process at the end of the chain, the cumulative contribution also includes everything upstream of it.
+ *     Both are expressed in the unit of the analysed process.
+ * </p>
+ */
+public class ContributionPath {
+    protected Process process;
+    protected ImpactType impactType;
+    protected ArrayList<DerivedRelation> relations;
+    protected double multiplier;
+    protected double directContribution;
+    protected double cumulativeContribution;
+
+    public ContributionPath(Process process,
+                            ImpactType impactType,
+                            ArrayList<DerivedRelation> relations,
+                            double multiplier,
+                            double directContribution,
+                            double cumulativeContribution) {
+        this.process = process;
+        this.impactType = impactType;
+        this.relations = relations;
+        this.multiplier = multiplier;
+        this.directContribution = directContribution;
+        this.cumulativeContribution = cumulativeContribution;
+    }
+
+    /**
+     * @return the analysed process
+     */
+    public Process getProcess() {
+        return process;
+    }
+
+    public ImpactType getImpactType() {
+        return impactType;
+    }
+
+    /**
+     * @return the derived relations, from the analysed process upstream
+     */
+    public ArrayList<DerivedRelation> getRelations() {
+        return relations;
+    }
+
+    /**
+     * @return the process at the upstream end of the path, the analysed process for an empty path
+     */
+    public Process getUpstreamProcess() {
+        return relations.isEmpty() ? process : relations.get(relations.size() - 1).getSource();
+    }
+
+    /**
+     * @return the product of the multipliers of the relations
+     */
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * @return the impact of the elementary flows of the upstream process through this path
+     */
+    public double getDirectContribution() {
+        return directContribution;
+    }
+
+    /**
+     * @return the impact of the upstream process and of everything upstream of it through this path
+     */
+    public double getCumulativeContribution() {
+        return cumulativeContribution;
+    }
+
+    public String toString() {
+        StringBuilder path = new StringBuilder(process.getId());
+        for (DerivedRelation relation: relations) {
+            path.append(" <- ").append(relation.getSource().getId());
+        }
+        return path + ": " + directContribution;
+    }
+}
@@ -92,6 +92,26 @@ public class DerivedRelation {
                   .toHashCode();
     }
 
+    /**
+     * @return the value of the coefficient in the reference unit, inverted if the exponent is negative:
+     *         the quantity of the source process needed by one unit of the destination process
+     */
+    public double getMultiplier() {
+        return getMultiplier(coeff.getValue().value);
+    }
+
+    /**
+     * @param coeffValue a value of the coefficient, in the unit of the coefficient
+     * @return the multiplier of the relation if the coefficient had this value
+     */
+    public double getMultiplier(double coeffValue) {
+        double value = coeffValue * coeff.getUnit().getConversionFactor();
+        if (-1 == exponent) {
+            value = 1 / value;
+        }
+        return value;
+    }
+
     public Process getSource() {
         return source;
     }
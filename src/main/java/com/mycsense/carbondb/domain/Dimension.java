@@ -22,18 +22,25 @@
 
 package com.mycsense.carbondb.domain;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.SortedSet;
 import java.util.TreeSet;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+/**
+ * A set of keywords. The equality, the hash code and the intersections are computed on a compact copy
+ * of the keywords (see {@link KeywordSet}), built on first use: the keywords are only modified
+ * through {@link #addKeyword(Keyword)} and {@link #addKeywords(Collection)}, which reset it,
+ * and are read through an unmodifiable view.
+ */
 public class Dimension {
     protected String id;
-    public TreeSet<Keyword> keywords;
+    protected TreeSet<Keyword> keywords;
     public HashMap<Integer, String> keywordsPosition;
+    protected KeywordSet keywordSet;
 
     public Dimension() {
         this("");
@@ -67,10 +74,33 @@ public class Dimension {
         return keywords.size();
     }
 
+    /**
+     * @return an unmodifiable view of the keywords
+     */
+    public SortedSet<Keyword> getKeywords() {
+        return Collections.unmodifiableSortedSet(keywords);
+    }
+
     public boolean addKeyword(Keyword keyword) {
+        keywordSet = null;
         return keywords.add(keyword);
     }
 
+    public boolean addKeywords(Collection<Keyword> keywords) {
+        keywordSet = null;
+        return this.keywords.addAll(keywords);
+    }
+
+    /**
+     * @return the compact copy of the keywords
+     */
+    public KeywordSet getKeywordSet() {
+        if (null == keywordSet) {
+            keywordSet = KeywordSet.of(keywords);
+        }
+        return keywordSet;
+    }
+
     public void addKeywordPosition(Integer position, String keywordURI) {
         keywordsPosition.put(position, keywordURI);
     }
@@ -80,7 +110,7 @@ public class Dimension {
     }
 
     public boolean contains(Keyword keyword) {
-        return keywords.contains(keyword);
+        return getKeywordSet().contains(keyword);
     }
 
     public boolean isEmpty() {
@@ -95,26 +125,16 @@ public class Dimension {
         if (obj == this)
             return true;
 
-        Dimension rhs = (Dimension) obj;
-        return new EqualsBuilder()
-                  .append(keywords, rhs.keywords)
-                  .isEquals();
+        return getKeywordSet().equals(((Dimension) obj).getKeywordSet());
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder(3, 67)
-                  .append(keywords)
-                  .toHashCode();
+        return getKeywordSet().hashCode();
     }
 
     public Boolean hasCommonKeywords(Dimension dimension)
     {
-        for (Keyword keyword: keywords) {
-            if (dimension.contains(keyword)) {
-                return true;
-            }
-        }
-        return false;
+        return getKeywordSet().intersects(dimension.getKeywordSet());
     }
 }
\ No newline at end of file
@@ -25,6 +25,8 @@ package com.mycsense.carbondb.domain;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import com.mycsense.carbondb.domain.dimension.Orientation;
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -186,27 +188,99 @@ public class DimensionSet {
      */
     public DimensionSet combinations()
     {
-        if (dimensions.size() == 0) {
-            return new DimensionSet();
+        DimensionSet ret = new DimensionSet();
+        for (Dimension coordinate: odometer()) {
+            ret.add(coordinate);
         }
-        return _getCombinations(0, dimensions.toArray(new Dimension[0]));
+        return ret;
     }
 
-    protected DimensionSet _getCombinations(int index, Dimension... dimensions)
+    /**
+     * <p>Iterates lazily over the cartesian product of the dimensions contained in the set,
+     * without building the product: a new coordinate is created at each step.</p>
+     * <p>When the dimensions share keywords, the same coordinate can be generated several times,
+     * the coordinates are then taken from {@link #combinations()} to remain distinct.</p>
+     *
+     * @return the coordinates, i.e. one keyword from every dimension
+     */
+    public Iterable<Dimension> coordinates()
     {
-        DimensionSet ret = new DimensionSet();
-        if (index == dimensions.length) {
-            ret.add(new Dimension());
+        HashSet<Keyword> keywords = new HashSet<>();
+        int count = 0;
+        for (Dimension dimension: dimensions) {
+            keywords.addAll(dimension.getKeywords());
+            count += dimension.size();
+        }
+        if (keywords.size() < count) {
+            return combinations().dimensions;
+        }
+        return odometer();
+    }
+
+    /**
+     * @return the coordinates generated by an odometer over the keywords of the dimensions
+     */
+    protected Iterable<Dimension> odometer()
+    {
+        final Keyword[][] keywords = new Keyword[dimensions.size()][];
+        int d = 0;
+        for (Dimension dimension: dimensions) {
+            keywords[d++] = dimension.getKeywords().toArray(new Keyword[dimension.size()]);
         }
-        else {
-            for (Keyword keyword: dimensions[index].keywords) {
-                for (Dimension dim: _getCombinations(index+1, dimensions).dimensions) {
-                    dim.addKeyword(keyword);
-                    ret.add(dim);
+        return new Iterable<Dimension>() {
+            @Override
+            public Iterator<Dimension> iterator() {
+                return new CoordinateIterator(keywords);
+            }
+        };
+    }
+
+    /**
+     * Odometer over the keywords of the dimensions: the last dimension turns the fastest.
+     */
+    protected static class CoordinateIterator implements Iterator<Dimension> {
+        protected Keyword[][] keywords;
+        protected int[] positions;
+        protected boolean hasNext;
+
+        protected CoordinateIterator(Keyword[][] keywords) {
+            this.keywords = keywords;
+            positions = new int[keywords.length];
+            hasNext = keywords.length > 0;
+            for (Keyword[] dimension: keywords) {
+                if (dimension.length == 0) {
+                    hasNext = false;
                 }
             }
         }
-        return ret;
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public Dimension next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            Dimension coordinate = new Dimension();
+            for (int d = 0; d < keywords.length; d++) {
+                coordinate.addKeyword(keywords[d][positions[d]]);
+            }
+            int d = keywords.length - 1;
+            while (d >= 0 && ++positions[d] == keywords[d].length) {
+                positions[d] = 0;
+                d--;
+            }
+            hasNext = d >= 0;
+            return coordinate;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 
     public Dimension commonKeywords(DimensionSet dimSet)
@@ -215,7 +289,7 @@ public class DimensionSet {
         Dimension hashTableRhs = dimSet.keywordsHashTable();
 
         for (Dimension dimension: dimensions) {
-            for (Keyword keyword: dimension.keywords) {
+            for (Keyword keyword: dimension.getKeywords()) {
                 if (hashTableRhs.contains(keyword)) {
                     commonKeywords.addKeyword(keyword);
                 }
@@ -262,13 +336,13 @@ public class DimensionSet {
 
         for (Dimension dimension: dimSet.dimensions) {
             unusedDimsInRhs.add(dimension);
-            for (Keyword keyword: dimension.keywords) {
+            for (Keyword keyword: dimension.getKeywords()) {
                 hashTableRhs.put(keyword, dimension);
             }
         }
         for (Dimension dimension: dimensions) {
             Dimension dimResultTemp = new Dimension();
-            for (Keyword keyword: dimension.keywords) {
+            for (Keyword keyword: dimension.getKeywords()) {
                 if (hashTableRhs.containsKey(keyword)) {
                     unusedDimsInRhs.remove(hashTableRhs.get(keyword));
                     dimResultTemp.addKeyword(keyword);
@@ -294,7 +368,7 @@ public class DimensionSet {
     {
         Dimension hashTable = new Dimension();
         for (Dimension dimension: dimensions) {
-            for (Keyword keyword: dimension.keywords) {
+            for (Keyword keyword: dimension.getKeywords()) {
                 hashTable.addKeyword(keyword);
             }
         }
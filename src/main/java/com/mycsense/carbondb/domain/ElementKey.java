@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain;
+
+/**
+ * Key of the single elements in the ontology: the set of their keywords and their unit,
+ * the same fields as the equality of {@link SingleElement}. The hash code is computed once.
+ */
+public final class ElementKey {
+    protected final KeywordSet keywords;
+    protected final Unit unit;
+    protected final int hash;
+
+    public ElementKey(KeywordSet keywords, Unit unit) {
+        this.keywords = keywords;
+        this.unit = unit;
+        hash = 67 * keywords.hashCode() + (null == unit ? 0 : unit.hashCode());
+    }
+
+    /**
+     * @param keywords a set of keywords
+     * @param unit an unit
+     * @return the key of the elements with these keywords and this unit
+     */
+    public static ElementKey of(Dimension keywords, Unit unit) {
+        return new ElementKey(keywords.getKeywordSet(), unit);
+    }
+
+    /**
+     * @param element a single element
+     * @return the key of the element
+     */
+    public static ElementKey of(SingleElement element) {
+        return new ElementKey(element.getKeywordSet(), element.getUnit());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ElementKey))
+            return false;
+        if (obj == this)
+            return true;
+
+        ElementKey rhs = (ElementKey) obj;
+        return hash == rhs.hash
+               && keywords.equals(rhs.keywords)
+               && (null == unit ? null == rhs.unit : unit.equals(rhs.unit));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
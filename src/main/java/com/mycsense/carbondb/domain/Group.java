@@ -22,7 +22,6 @@
 
 package com.mycsense.carbondb.domain;
 
-import com.mycsense.carbondb.NoElementFoundException;
 import com.mycsense.carbondb.domain.group.Type;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -37,7 +36,10 @@ public class Group {
      * Contains the dimension set and the common keywords
      */
     protected DimensionSet fullDimSet;
-    protected DimensionSet coordinates;
+    /**
+     * Built on first use, possibly by several workers of the translation at the same time
+     */
+    protected volatile DimensionSet coordinates;
     protected TreeSet<Keyword> commonKeywords;
     protected Type type = Type.PROCESS;
     protected HashSet<SingleElement> elements;
@@ -71,7 +73,7 @@ public class Group {
         sourceRelations = new HashSet<>();
         comment = "";
         setCommonKeywords(commonKeywords);
-        createCoordinates();
+        resetCoordinates();
     }
 
     public DimensionSet getDimSet() {
@@ -94,16 +96,51 @@ public class Group {
         }
     }
 
+    /**
+     * Resets the coordinates of the group, they are generated again from the full dimension set when needed.
+     */
+    public void resetCoordinates() {
+        coordinates = null;
+    }
+
+    /**
+     * Generates and materializes the coordinates of the group from the full dimension set.
+     */
     public void createCoordinates() {
         coordinates = fullDimSet.combinations();
     }
 
     public String toString() {
-        return "coordinates: " + coordinates.toString() + " dimSet: " + dimSet.toString() + " unit: " + unit;
+        return "coordinates: " + getCoordinates().toString() + " dimSet: " + dimSet.toString() + " unit: " + unit;
     }
 
+    /**
+     * The coordinates are only published once built: concurrent callers may build them twice,
+     * but never see a partially built set.
+     *
+     * @return the materialized coordinates of the group, built on first use
+     */
     public DimensionSet getCoordinates() {
-        return coordinates;
+        DimensionSet built = coordinates;
+        if (null == built) {
+            built = fullDimSet.combinations();
+            coordinates = built;
+        }
+        return built;
+    }
+
+    /**
+     * The coordinates are streamed from the full dimension set unless they are already materialized,
+     * see {@link DimensionSet#coordinates()}.
+     *
+     * @return the coordinates of the group
+     */
+    public Iterable<Dimension> coordinates() {
+        DimensionSet built = coordinates;
+        if (null != built) {
+            return built.dimensions;
+        }
+        return fullDimSet.coordinates();
     }
 
     public void setLabel(String label) {
@@ -200,16 +237,14 @@ public class Group {
 
     protected void fetchElements() {
         elements = new HashSet<>();
-        for (Dimension coordinate : coordinates.dimensions) {
-            try {
-                if (type == Type.COEFFICIENT) {
-                    addElement(CarbonOntology.getInstance().findCoefficient(coordinate, unit));
-                }
-                else {
-                    addElement(CarbonOntology.getInstance().findProcess(coordinate, unit));
-                }
-            } catch (NoElementFoundException e) {
-                // nothing to do here, there is no element at this coordinate
+        CarbonOntology ontology = CarbonOntology.getInstance();
+        for (Dimension coordinate : coordinates()) {
+            SingleElement element = type == Type.COEFFICIENT
+                                    ? ontology.getCoefficient(coordinate, unit)
+                                    : ontology.getProcess(coordinate, unit);
+            // there may be no element at this coordinate
+            if (null != element) {
+                addElement(element);
             }
         }
     }
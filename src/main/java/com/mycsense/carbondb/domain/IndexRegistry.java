@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Gives every registered element a stable and dense integer index, starting from zero,
+ * in the order of registration. The elements are identified by their instance,
+ * as the CarbonOntology holds a single instance of every element.
+ *
+ * @param <T> the type of the elements
+ */
+public class IndexRegistry<T> {
+    protected ArrayList<T> elements;
+    protected IdentityHashMap<T, Integer> indexes;
+
+    public IndexRegistry() {
+        elements = new ArrayList<>();
+        indexes = new IdentityHashMap<>();
+    }
+
+    /**
+     * Registers an element, if it is not already registered.
+     *
+     * @param element the element to register
+     * @return the index of the element
+     */
+    public int register(T element) {
+        Integer index = indexes.get(element);
+        if (null == index) {
+            index = elements.size();
+            elements.add(element);
+            indexes.put(element, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param element an element
+     * @return the index of the element, or -1 if it is not registered
+     */
+    public int indexOf(T element) {
+        Integer index = indexes.get(element);
+        return null == index ? -1 : index;
+    }
+
+    /**
+     * @param index an index
+     * @return the element registered with this index
+     */
+    public T get(int index) {
+        return elements.get(index);
+    }
+
+    /**
+     * @return the number of registered elements
+     */
+    public int size() {
+        return elements.size();
+    }
+
+    /**
+     * @return a read-only view of the registered elements, sorted by index
+     */
+    public List<T> getElements() {
+        return Collections.unmodifiableList(elements);
+    }
+}
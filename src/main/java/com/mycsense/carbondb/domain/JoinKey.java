@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Key of the hash joins of the translation of the source relations: the keywords of a coordinate
+ *     that belong to the common keywords of two groups, stored as their indexes (see {@link Keyword#getIndex()}).
+ * </p>
+ * <p>
+ *     Up to four keywords whose indexes fit in 16 bits are packed in a single long,
+ *     the other keys keep the sorted array of the indexes. The hash code is computed once.
+ * </p>
+ */
+public final class JoinKey {
+    /**
+     * The key of all the coordinates when the groups have no dimension in common.
+     */
+    public static final JoinKey EMPTY = new JoinKey(0L, null);
+
+    protected static final int PACKED_KEYWORDS = 4;
+    protected static final int PACKED_MAX_INDEX = 0xFFFE;
+
+    protected final long packed;
+    protected final int[] indexes;
+    protected final int hash;
+
+    protected JoinKey(long packed, int[] indexes) {
+        this.packed = packed;
+        this.indexes = indexes;
+        hash = null == indexes ? (int) (packed ^ (packed >>> 32)) : Arrays.hashCode(indexes);
+    }
+
+    /**
+     * @param keywords the keywords of a coordinate
+     * @param commonKeywords the common keywords of the joined groups
+     * @param alpha the number of dimensions the joined groups have in common
+     * @return the key of the coordinate, or null if it does not contain exactly alpha common keywords
+     */
+    public static JoinKey of(KeywordSet keywords, KeywordSet commonKeywords, int alpha) {
+        return of(keywords, KeywordSet.EMPTY, commonKeywords, alpha);
+    }
+
+    /**
+     * Same as {@link #of(KeywordSet, KeywordSet, int)} for the union of the keywords of two coordinates.
+     *
+     * @param first the keywords of a coordinate
+     * @param second the keywords of another coordinate
+     * @param commonKeywords the common keywords of the joined groups
+     * @param alpha the number of dimensions the joined groups have in common
+     * @return the key of the union of the coordinates, or null if it does not contain exactly alpha common keywords
+     */
+    public static JoinKey of(KeywordSet first, KeywordSet second, KeywordSet commonKeywords, int alpha) {
+        if (0 == alpha) {
+            return EMPTY;
+        }
+        if (collect(first.indexes, second.indexes, commonKeywords, null) != alpha) {
+            return null;
+        }
+        int[] indexes = new int[alpha];
+        collect(first.indexes, second.indexes, commonKeywords, indexes);
+        if (alpha > PACKED_KEYWORDS || indexes[alpha - 1] > PACKED_MAX_INDEX) {
+            return new JoinKey(0L, indexes);
+        }
+        long packed = 0L;
+        for (int index: indexes) {
+            packed = (packed << 16) | (index + 1);
+        }
+        return new JoinKey(packed, null);
+    }
+
+    /**
+     * Walks the union of two sorted arrays of indexes.
+     *
+     * @param first sorted indexes
+     * @param second sorted indexes
+     * @param commonKeywords the keywords to keep
+     * @param selected receives the kept indexes in increasing order, if not null and large enough
+     * @return the number of kept indexes
+     */
+    protected static int collect(int[] first, int[] second, KeywordSet commonKeywords, int[] selected) {
+        int count = 0;
+        int i = 0, j = 0;
+        while (i < first.length || j < second.length) {
+            int index;
+            if (j == second.length || (i < first.length && first[i] < second[j])) {
+                index = first[i++];
+            }
+            else if (i == first.length || second[j] < first[i]) {
+                index = second[j++];
+            }
+            else {
+                index = first[i++];
+                j++;
+            }
+            if (commonKeywords.containsIndex(index)) {
+                if (null != selected && count < selected.length) {
+                    selected[count] = index;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof JoinKey))
+            return false;
+        if (obj == this)
+            return true;
+
+        JoinKey rhs = (JoinKey) obj;
+        if (hash != rhs.hash) {
+            return false;
+        }
+        if (null == indexes || null == rhs.indexes) {
+            return null == indexes && null == rhs.indexes && packed == rhs.packed;
+        }
+        return Arrays.equals(indexes, rhs.indexes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
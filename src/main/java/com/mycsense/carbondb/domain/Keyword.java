@@ -22,19 +22,43 @@
 
 package com.mycsense.carbondb.domain;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The keywords are interned: every id is given a dense index, shared by all the keywords with this id,
+ * which is used for the equality, the hash code and the compact keyword sets (see {@link KeywordSet}).
+ */
 public class Keyword implements Comparable<Keyword> {
+    private static final ConcurrentHashMap<String, Integer> indexes = new ConcurrentHashMap<>();
+
     protected String id;
     protected String label;
+    protected int index;
 
     public Keyword() {
-        id = "";
+        this("");
     }
 
     public Keyword(String id) {
-        this.id = id;
+        setId(id);
+    }
+
+    /**
+     * @param id the id of a keyword
+     * @return the dense index of this id, a new one being given to an unknown id
+     */
+    protected static int intern(String id) {
+        Integer index = indexes.get(id);
+        if (null == index) {
+            synchronized (indexes) {
+                index = indexes.get(id);
+                if (null == index) {
+                    index = indexes.size();
+                    indexes.put(id, index);
+                }
+            }
+        }
+        return index;
     }
 
     public String getId() {
@@ -43,6 +67,14 @@ public class Keyword implements Comparable<Keyword> {
 
     public void setId(String id) {
         this.id = id;
+        index = intern(id);
+    }
+
+    /**
+     * @return the dense index of the id of this keyword
+     */
+    public int getIndex() {
+        return index;
     }
 
     public void setLabel(String label) {
@@ -64,17 +96,12 @@ public class Keyword implements Comparable<Keyword> {
         if (obj == this)
             return true;
 
-        Keyword rhs = (Keyword) obj;
-        return new EqualsBuilder()
-                  .append(id, rhs.getId())
-                  .isEquals();
+        return index == ((Keyword) obj).index;
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder(11, 79)
-                  .append(id)
-                  .toHashCode();
+        return index;
     }
 
     @Override
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * <p>
+ *     Immutable set of keywords stored as the sorted array of their dense indexes (see {@link Keyword#getIndex()}).
+ * </p>
+ * <p>
+ *     When all the indexes are lower than 64, the set is also stored as a bitset in a single long,
+ *     and the comparisons are done with bitwise operations.
+ *     The hash code is computed once, and none of the queries allocates memory.
+ * </p>
+ */
+public final class KeywordSet {
+    public static final KeywordSet EMPTY = new KeywordSet(new int[0]);
+
+    protected final int[] indexes;
+    protected final long bits;
+    protected final boolean small;
+    protected final int hash;
+
+    protected KeywordSet(int[] indexes) {
+        this.indexes = indexes;
+        long bits = 0L;
+        boolean small = true;
+        for (int index: indexes) {
+            if (index < 64) {
+                bits |= 1L << index;
+            }
+            else {
+                small = false;
+            }
+        }
+        this.bits = bits;
+        this.small = small;
+        hash = Arrays.hashCode(indexes);
+    }
+
+    /**
+     * @param keywords a collection of keywords
+     * @return the set of these keywords
+     */
+    public static KeywordSet of(Collection<Keyword> keywords) {
+        if (keywords.isEmpty()) {
+            return EMPTY;
+        }
+        int[] indexes = new int[keywords.size()];
+        int size = 0;
+        for (Keyword keyword: keywords) {
+            indexes[size++] = keyword.getIndex();
+        }
+        Arrays.sort(indexes);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (0 == distinct || indexes[distinct - 1] != indexes[i]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        return new KeywordSet(distinct == size ? indexes : Arrays.copyOf(indexes, distinct));
+    }
+
+    public int size() {
+        return indexes.length;
+    }
+
+    public boolean isEmpty() {
+        return 0 == indexes.length;
+    }
+
+    public boolean contains(Keyword keyword) {
+        return containsIndex(keyword.getIndex());
+    }
+
+    /**
+     * @param index the index of a keyword
+     * @return true if the keyword with this index belongs to the set
+     */
+    protected boolean containsIndex(int index) {
+        if (small) {
+            return index < 64 && 0L != (bits & (1L << index));
+        }
+        return Arrays.binarySearch(indexes, index) >= 0;
+    }
+
+    /**
+     * @param other another set of keywords
+     * @return true if the two sets have at least one keyword in common
+     */
+    public boolean intersects(KeywordSet other) {
+        if (small && other.small) {
+            return 0L != (bits & other.bits);
+        }
+        int i = 0, j = 0;
+        while (i < indexes.length && j < other.indexes.length) {
+            if (indexes[i] == other.indexes[j]) {
+                return true;
+            }
+            if (indexes[i] < other.indexes[j]) {
+                i++;
+            }
+            else {
+                j++;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof KeywordSet))
+            return false;
+        if (obj == this)
+            return true;
+
+        KeywordSet rhs = (KeywordSet) obj;
+        if (hash != rhs.hash || small != rhs.small) {
+            return false;
+        }
+        return small ? bits == rhs.bits : Arrays.equals(indexes, rhs.indexes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -26,7 +26,7 @@ import com.mycsense.carbondb.AlreadyExistsException;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.TreeSet;
+import java.util.SortedSet;
 
 public class Process extends SingleElement {
     protected HashMap<String, Impact> impacts;
@@ -35,7 +35,7 @@ public class Process extends SingleElement {
     protected HashSet<DerivedRelation> downstreamDerivedRelations;
     protected HashSet<DerivedRelation> upstreamDerivedRelations;
 
-    public Process(TreeSet<Keyword> keywords, Unit unit) {
+    public Process(SortedSet<Keyword> keywords, Unit unit) {
         super(keywords, unit);
         impacts = new HashMap<>();
         inputFlows = new HashMap<>();
@@ -59,6 +59,23 @@ public class Process extends SingleElement {
         impacts.put(impact.getType().getId(), impact);
     }
 
+    /**
+     * Adds several impacts at once, none of them being added if one already exists.
+     *
+     * @param impacts the impacts, indexed by impact type id
+     * @throws AlreadyExistsException
+     */
+    public void addImpacts(HashMap<String, Impact> impacts) throws AlreadyExistsException {
+        if (!this.impacts.isEmpty()) {
+            for (String typeId: impacts.keySet()) {
+                if (this.impacts.containsKey(typeId)) {
+                    throw new AlreadyExistsException("The process " + id + " already has an impact for the impact type " + typeId);
+                }
+            }
+        }
+        this.impacts.putAll(impacts);
+    }
+
     public HashMap<String, ElementaryFlow> getInputFlows() {
         return inputFlows;
     }
@@ -75,6 +92,10 @@ public class Process extends SingleElement {
         return calculatedFlows;
     }
 
+    public void setCalculatedFlows(HashMap<String, ElementaryFlow> calculatedFlows) {
+        this.calculatedFlows = calculatedFlows;
+    }
+
     public void addCalculatedFlow(ElementaryFlow flow) throws AlreadyExistsException {
         if (calculatedFlows.containsKey(flow.getType().getId())) {
             throw new AlreadyExistsException("The process " + id + " already has an elementary"
@@ -83,6 +104,24 @@ public class Process extends SingleElement {
         calculatedFlows.put(flow.getType().getId(), flow);
     }
 
+    /**
+     * Adds several calculated flows at once, none of them being added if one already exists.
+     *
+     * @param flows the calculated flows, indexed by elementary flow type id
+     * @throws AlreadyExistsException
+     */
+    public void addCalculatedFlows(HashMap<String, ElementaryFlow> flows) throws AlreadyExistsException {
+        if (!calculatedFlows.isEmpty()) {
+            for (String typeId: flows.keySet()) {
+                if (calculatedFlows.containsKey(typeId)) {
+                    throw new AlreadyExistsException("The process " + id + " already has an elementary"
+                            + " flow for the elementary flow type " + typeId);
+                }
+            }
+        }
+        calculatedFlows.putAll(flows);
+    }
+
     public boolean hasCalculatedElementaryFlow(ElementaryFlowType type) {
         return calculatedFlows.containsKey(type.getId());
     }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain;
+
+import java.util.HashMap;
+
+/**
+ * The cumulative elementary flows and the impacts of a single process, as returned by a query.
+ */
+public class ProcessResult {
+    protected Process process;
+    protected HashMap<String, ElementaryFlow> calculatedFlows;
+    protected HashMap<String, Impact> impacts;
+
+    public ProcessResult(Process process,
+                         HashMap<String, ElementaryFlow> calculatedFlows,
+                         HashMap<String, Impact> impacts) {
+        this.process = process;
+        this.calculatedFlows = calculatedFlows;
+        this.impacts = impacts;
+    }
+
+    public Process getProcess() {
+        return process;
+    }
+
+    /**
+     * @return the cumulative elementary flows, indexed by elementary flow type id
+     */
+    public HashMap<String, ElementaryFlow> getCalculatedFlows() {
+        return calculatedFlows;
+    }
+
+    /**
+     * @return the impacts, indexed by impact type id
+     */
+    public HashMap<String, Impact> getImpacts() {
+        return impacts;
+    }
+}
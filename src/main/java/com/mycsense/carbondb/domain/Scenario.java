@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain;
+
+import java.util.LinkedHashMap;
+
+/**
+ * An alternative set of coefficient values, evaluated against the ontology without changing it.
+ */
+public class Scenario {
+    protected String id;
+    protected LinkedHashMap<Coefficient, Value> overrides;
+
+    public Scenario(String id) {
+        this.id = id;
+        overrides = new LinkedHashMap<>();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @param coefficient a coefficient
+     * @param value the value of the coefficient in this scenario
+     * @return this scenario
+     */
+    public Scenario override(Coefficient coefficient, Value value) {
+        overrides.put(coefficient, value);
+        return this;
+    }
+
+    /**
+     * @return the values of the coefficients changed by this scenario
+     */
+    public LinkedHashMap<Coefficient, Value> getOverrides() {
+        return overrides;
+    }
+
+    public String toString() {
+        return id;
+    }
+}
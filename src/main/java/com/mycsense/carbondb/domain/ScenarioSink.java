@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain;
+
+import java.util.HashMap;
+
+/**
+ * Receives the results of the scenarios as soon as they are calculated.
+ * The scenarios are evaluated concurrently: the implementations must be thread safe.
+ */
+public interface ScenarioSink {
+    /**
+     * Called once for each process having impacts in the scenario.
+     *
+     * @param scenario the scenario
+     * @param process the process
+     * @param impacts the impacts of the process in the scenario, indexed by impact type id
+     */
+    void accept(Scenario scenario, Process process, HashMap<String, Impact> impacts);
+
+    /**
+     * Called instead of {@link #accept} if the scenario could not be calculated.
+     *
+     * @param scenario the scenario
+     * @param cause the reason of the failure
+     */
+    void failed(Scenario scenario, Exception cause);
+}
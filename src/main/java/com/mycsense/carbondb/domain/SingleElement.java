@@ -23,18 +23,20 @@
 package com.mycsense.carbondb.domain;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.SortedSet;
 import java.util.TreeSet;
 
 public abstract class SingleElement {
-    public TreeSet<Keyword> keywords;
+    protected TreeSet<Keyword> keywords;
 
     protected String id;
     protected Unit unit;
 
     protected HashSet<Group> groups;
+    protected KeywordSet keywordSet;
 
     public SingleElement() {
         keywords = new TreeSet<>();
@@ -46,7 +48,7 @@ public abstract class SingleElement {
         groups = new HashSet<>();
     }
 
-    public SingleElement(TreeSet<Keyword> keywords, Unit unit) {
+    public SingleElement(SortedSet<Keyword> keywords, Unit unit) {
         this.keywords = new TreeSet<>(keywords);
         this.unit = unit;
         groups = new HashSet<>();
@@ -84,8 +86,24 @@ public abstract class SingleElement {
         return keywords + " ("+ unit.getSymbol() +" )";
     }
 
-    public TreeSet<Keyword> getKeywords() {
-        return keywords;
+    /**
+     * @return an unmodifiable view of the keywords
+     */
+    public SortedSet<Keyword> getKeywords() {
+        return Collections.unmodifiableSortedSet(keywords);
+    }
+
+    /**
+     * The keywords of an element cannot change once it is created,
+     * so their compact copy is built once, on first use.
+     *
+     * @return the compact copy of the keywords, used for the equality and the hash code
+     */
+    public KeywordSet getKeywordSet() {
+        if (null == keywordSet) {
+            keywordSet = KeywordSet.of(keywords);
+        }
+        return keywordSet;
     }
 
     public HashSet<Group> getGroups() {
@@ -109,17 +127,12 @@ public abstract class SingleElement {
             return true;
 
         SingleElement rhs = (SingleElement) obj;
-        return new EqualsBuilder()
-                .append(keywords, rhs.keywords)
-                .append(unit, rhs.unit)
-                .isEquals();
+        return getKeywordSet().equals(rhs.getKeywordSet())
+               && new EqualsBuilder().append(unit, rhs.unit).isEquals();
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder(3, 67)
-                .append(keywords)
-                .append(unit)
-                .toHashCode();
+        return 67 * getKeywordSet().hashCode() + (null == unit ? 0 : unit.hashCode());
     }
 }
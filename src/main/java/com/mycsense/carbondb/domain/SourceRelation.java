@@ -85,22 +85,23 @@ public class SourceRelation {
             throw new IncompatibleDimSetException("The union of the source with the coeff groups and the destination "
                                                   + "group are incompatible in the source relation " + id);
         }
-        Integer alpha1 = unionResult.alpha;
-        Integer alpha2 = unionResult.dimSet.alpha(destination.getFullDimSet());
-        HashMap<String, ArrayList<Dimension>> coeffs = createGroupHashTable(coeff, unionResult.commonKeywords, alpha1);
-
-        Dimension commonKeywordsGp1GcGp2 = unionResult.dimSet.commonKeywords(destination.getFullDimSet());
-        HashMap<String, ArrayList<Dimension>> destinationProcesses = createGroupHashTable(destination, commonKeywordsGp1GcGp2, alpha2);
-        String hashKey2;
-        for (Dimension sourceProcess: source.getCoordinates().dimensions) {
-            String hashKey = getHashKey(sourceProcess, unionResult.commonKeywords, alpha1);
-            if (!hashKey.equals("#nullHashKey#")) {
-                for (Dimension singleCoeff: coeffs.get(hashKey)) {
-                    Dimension sourceAndCoeffKeywords = new Dimension(sourceProcess);
-                    sourceAndCoeffKeywords.keywords.addAll(singleCoeff.keywords);
-                    hashKey2 = getHashKey(sourceAndCoeffKeywords, commonKeywordsGp1GcGp2, alpha2);
-                    if (!hashKey2.equals("#nullHashKey#")) {
-                        for (Dimension destinationProcess: destinationProcesses.get(hashKey2)) {
+        int alpha1 = unionResult.alpha;
+        int alpha2 = unionResult.dimSet.alpha(destination.getFullDimSet());
+        KeywordSet commonKeywordsGp1Gc = unionResult.commonKeywords.getKeywordSet();
+        HashMap<JoinKey, ArrayList<Dimension>> coeffs = createJoinTable(coeff, commonKeywordsGp1Gc, alpha1);
+
+        KeywordSet commonKeywordsGp1GcGp2 = unionResult.dimSet.commonKeywords(destination.getFullDimSet()).getKeywordSet();
+        HashMap<JoinKey, ArrayList<Dimension>> destinationProcesses = createJoinTable(destination, commonKeywordsGp1GcGp2, alpha2);
+        for (Dimension sourceProcess: source.coordinates()) {
+            JoinKey key = JoinKey.of(sourceProcess.getKeywordSet(), commonKeywordsGp1Gc, alpha1);
+            ArrayList<Dimension> matchingCoeffs = null == key ? null : coeffs.get(key);
+            if (null != matchingCoeffs) {
+                for (Dimension singleCoeff: matchingCoeffs) {
+                    JoinKey key2 = JoinKey.of(
+                            sourceProcess.getKeywordSet(), singleCoeff.getKeywordSet(), commonKeywordsGp1GcGp2, alpha2);
+                    ArrayList<Dimension> matchingDestinations = null == key2 ? null : destinationProcesses.get(key2);
+                    if (null != matchingDestinations) {
+                        for (Dimension destinationProcess: matchingDestinations) {
                             translationDerivative.add(new TranslationDerivative(
                                     sourceProcess,
                                     singleCoeff,
@@ -122,7 +123,7 @@ public class SourceRelation {
         }
 
         ArrayList<String> keywordInKey = new ArrayList<>();
-        for (Keyword keyword: dimension.keywords) {
+        for (Keyword keyword: dimension.getKeywords()) {
             if (commonKeywords.contains(keyword)) {
                 keywordInKey.add(keyword.toString());
             }
@@ -138,7 +139,7 @@ public class SourceRelation {
     public static HashMap<String, ArrayList<Dimension>> createGroupHashTable(Group group, Dimension commonKeywords, Integer alpha)
     {
         HashMap<String, ArrayList<Dimension>> elements = new HashMap<>();
-        for (Dimension element: group.getCoordinates().dimensions) {
+        for (Dimension element: group.coordinates()) {
             String hashKey = getHashKey(element, commonKeywords, alpha);
             if (!hashKey.equals("#nullHashKey#")) {
                 if (!elements.containsKey(hashKey)) {
@@ -150,6 +151,31 @@ public class SourceRelation {
         return elements;
     }
 
+    /**
+     * Indexes the coordinates of a group by their join keys, see {@link JoinKey}.
+     *
+     * @param group a group
+     * @param commonKeywords the common keywords of the joined groups
+     * @param alpha the number of dimensions the joined groups have in common
+     * @return the coordinates of the group indexed by their join keys
+     */
+    public static HashMap<JoinKey, ArrayList<Dimension>> createJoinTable(Group group, KeywordSet commonKeywords, int alpha)
+    {
+        HashMap<JoinKey, ArrayList<Dimension>> elements = new HashMap<>();
+        for (Dimension element: group.coordinates()) {
+            JoinKey key = JoinKey.of(element.getKeywordSet(), commonKeywords, alpha);
+            if (null != key) {
+                ArrayList<Dimension> keyElements = elements.get(key);
+                if (null == keyElements) {
+                    keyElements = new ArrayList<>();
+                    elements.put(key, keyElements);
+                }
+                keyElements.add(element);
+            }
+        }
+        return elements;
+    }
+
     protected static String implode(String separator, String... data) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < data.length - 1; i++) {
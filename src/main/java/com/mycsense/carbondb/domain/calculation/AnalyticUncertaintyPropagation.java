@@ -0,0 +1,320 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     First-order analytic propagation of the uncertainties through sparse matrix products and sums.
+ *     The uncertainties are relative, two independent values <code>a</code> and <code>b</code> having the
+ *     relative uncertainties <code>u<sub>a</sub></code> and <code>u<sub>b</sub></code>:
+ *     <ul>
+ *         <li>the relative uncertainty of <code>a b</code> is
+ *             <code>sqrt(u<sub>a</sub><sup>2</sup> + u<sub>b</sub><sup>2</sup>)</code></li>
+ *         <li>the relative uncertainty of <code>a + b</code> is
+ *             <code>sqrt((a u<sub>a</sub>)<sup>2</sup> + (b u<sub>b</sub>)<sup>2</sup>) / |a + b|</code></li>
+ *     </ul>
+ *     The sums are accumulated as absolute variances, so each term costs a few multiplications.
+ * </p>
+ * <p>
+ *     Only the non zero values are visited. The work buffers are allocated once for the largest
+ *     matrix seen, so an instance must not be shared between threads.
+ * </p>
+ */
+public class AnalyticUncertaintyPropagation {
+    protected double[] valueBuffer = new double[0];
+    protected double[] varianceBuffer = new double[0];
+    protected int[] marks = new int[0];
+    protected int[] rowsBuffer = new int[0];
+
+    /**
+     * A sparse matrix with the relative uncertainties of its non zero values.
+     */
+    public static class UncertainMatrix {
+        protected SparseColumnMatrix values;
+        protected double[] uncertainties;
+
+        public UncertainMatrix(SparseColumnMatrix values, double[] uncertainties) {
+            this.values = values;
+            this.uncertainties = uncertainties;
+        }
+
+        /**
+         * Aligns the uncertainties with the non zero values, the uncertainties of the zero values being ignored.
+         *
+         * @param values the values
+         * @param uncertainties the uncertainties, of the same size
+         * @return the uncertain matrix
+         */
+        public static UncertainMatrix of(SparseColumnMatrix values, SparseColumnMatrix uncertainties) {
+            int[] pointers = values.getColumnPointers();
+            int[] rows = values.getRowIndices();
+            int[] uPointers = uncertainties.getColumnPointers();
+            int[] uRows = uncertainties.getRowIndices();
+            double[] uValues = uncertainties.getValues();
+            double[] aligned = new double[values.cardinality()];
+            for (int j = 0; j < values.columns(); j++) {
+                int q = uPointers[j];
+                for (int p = pointers[j]; p < pointers[j + 1]; p++) {
+                    while (q < uPointers[j + 1] && uRows[q] < rows[p]) {
+                        q++;
+                    }
+                    if (q < uPointers[j + 1] && uRows[q] == rows[p]) {
+                        aligned[p] = uValues[q];
+                    }
+                }
+            }
+            return new UncertainMatrix(values, aligned);
+        }
+
+        public SparseColumnMatrix getValues() {
+            return values;
+        }
+
+        /**
+         * @return the relative uncertainties, in the order of the non zero values
+         */
+        public double[] getUncertainties() {
+            return uncertainties;
+        }
+
+        /**
+         * @return the uncertainties as a matrix having the pattern of the values
+         */
+        public SparseColumnMatrix getUncertaintyMatrix() {
+            return new SparseColumnMatrix(values.rows(), values.columns(),
+                                          values.getColumnPointers(), values.getRowIndices(), uncertainties);
+        }
+
+        /**
+         * @return the transposed matrix, with its uncertainties
+         */
+        public UncertainMatrix transpose() {
+            return new UncertainMatrix(values.transpose(), getUncertaintyMatrix().transpose().getValues());
+        }
+    }
+
+    /**
+     * Calculates <code>(R<sup>0</sup> + R<sup>1</sup> + ... + R<sup>n</sup>) B</code> and its uncertainties,
+     * n being large enough for the tracker to report the convergence. The terms are obtained as
+     * <code>R (R<sup>n-1</sup> B)</code>: they have the size of <code>B</code>, usually a few columns,
+     * the powers of R are never formed.
+     *
+     * @param dependencies the matrix R with its uncertainties
+     * @param rhs the matrix B with its uncertainties
+     * @param tracker the convergence tracker
+     * @param maxIterations the maximum number of terms after B
+     * @return the sum of the series with its uncertainties
+     */
+    public UncertainMatrix series(UncertainMatrix dependencies, UncertainMatrix rhs,
+                                  ConvergenceTracker tracker, int maxIterations) {
+        UncertainMatrix term = rhs;
+        UncertainMatrix sum = rhs;
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            term = multiply(dependencies, term);
+            sum = add(sum, term);
+            record(tracker, term, sum);
+            if (tracker.hasConverged()) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Records the terms of the series against the values of the sum they were added to.
+     *
+     * @param tracker the convergence tracker
+     * @param term the latest term
+     * @param sum the sum, the term included
+     */
+    protected void record(ConvergenceTracker tracker, UncertainMatrix term, UncertainMatrix sum) {
+        tracker.startIteration();
+        int[] pointers = term.values.getColumnPointers();
+        int[] rows = term.values.getRowIndices();
+        double[] values = term.values.getValues();
+        int[] sumPointers = sum.values.getColumnPointers();
+        int[] sumRows = sum.values.getRowIndices();
+        double[] sumValues = sum.values.getValues();
+        for (int j = 0; j < term.values.columns(); j++) {
+            int q = sumPointers[j];
+            for (int p = pointers[j]; p < pointers[j + 1]; p++) {
+                while (q < sumPointers[j + 1] && sumRows[q] < rows[p]) {
+                    q++;
+                }
+                // the entries summing up to zero are not stored
+                double value = q < sumPointers[j + 1] && sumRows[q] == rows[p] ? sumValues[q] : 0.0;
+                tracker.record(values[p], value);
+            }
+        }
+    }
+
+    /**
+     * @param left a matrix with its uncertainties
+     * @param right a matrix with its uncertainties
+     * @return the product of the matrices with its uncertainties
+     */
+    public UncertainMatrix multiply(UncertainMatrix left, UncertainMatrix right) {
+        int rows = left.values.rows();
+        int columns = right.values.columns();
+        ensureCapacity(rows);
+        int[] lPointers = left.values.getColumnPointers();
+        int[] lRows = left.values.getRowIndices();
+        double[] lValues = left.values.getValues();
+        int[] rPointers = right.values.getColumnPointers();
+        int[] rRows = right.values.getRowIndices();
+        double[] rValues = right.values.getValues();
+
+        int capacity = Math.max(16, left.values.cardinality() + right.values.cardinality());
+        int[] columnPointers = new int[columns + 1];
+        int[] resultRows = new int[capacity];
+        double[] resultValues = new double[capacity];
+        double[] resultUncertainties = new double[capacity];
+        int nz = 0;
+        for (int j = 0; j < columns; j++) {
+            columnPointers[j] = nz;
+            int count = 0;
+            for (int p = rPointers[j]; p < rPointers[j + 1]; p++) {
+                int k = rRows[p];
+                double b = rValues[p];
+                double ub = right.uncertainties[p];
+                for (int q = lPointers[k]; q < lPointers[k + 1]; q++) {
+                    int i = lRows[q];
+                    double term = lValues[q] * b;
+                    double absoluteUncertainty = term * productUncertainty(left.uncertainties[q], ub);
+                    if (marks[i] != j) {
+                        marks[i] = j;
+                        valueBuffer[i] = 0.0;
+                        varianceBuffer[i] = 0.0;
+                        rowsBuffer[count++] = i;
+                    }
+                    valueBuffer[i] += term;
+                    varianceBuffer[i] += absoluteUncertainty * absoluteUncertainty;
+                }
+            }
+            Arrays.sort(rowsBuffer, 0, count);
+            if (nz + count > resultRows.length) {
+                int grown = Math.max(2 * resultRows.length, nz + count);
+                resultRows = Arrays.copyOf(resultRows, grown);
+                resultValues = Arrays.copyOf(resultValues, grown);
+                resultUncertainties = Arrays.copyOf(resultUncertainties, grown);
+            }
+            for (int c = 0; c < count; c++) {
+                int i = rowsBuffer[c];
+                if (0.0 != valueBuffer[i]) {
+                    resultRows[nz] = i;
+                    resultValues[nz] = valueBuffer[i];
+                    resultUncertainties[nz] = relativeUncertainty(valueBuffer[i], varianceBuffer[i]);
+                    nz++;
+                }
+            }
+        }
+        columnPointers[columns] = nz;
+        return new UncertainMatrix(
+                new SparseColumnMatrix(rows, columns, columnPointers,
+                                       Arrays.copyOf(resultRows, nz), Arrays.copyOf(resultValues, nz)),
+                Arrays.copyOf(resultUncertainties, nz));
+    }
+
+    /**
+     * @param a a matrix with its uncertainties
+     * @param b a matrix of the same size with its uncertainties
+     * @return the sum of the matrices with its uncertainties
+     */
+    public UncertainMatrix add(UncertainMatrix a, UncertainMatrix b) {
+        int columns = a.values.columns();
+        int[] aPointers = a.values.getColumnPointers();
+        int[] aRows = a.values.getRowIndices();
+        double[] aValues = a.values.getValues();
+        int[] bPointers = b.values.getColumnPointers();
+        int[] bRows = b.values.getRowIndices();
+        double[] bValues = b.values.getValues();
+
+        int capacity = a.values.cardinality() + b.values.cardinality();
+        int[] columnPointers = new int[columns + 1];
+        int[] resultRows = new int[capacity];
+        double[] resultValues = new double[capacity];
+        double[] resultUncertainties = new double[capacity];
+        int nz = 0;
+        for (int j = 0; j < columns; j++) {
+            columnPointers[j] = nz;
+            int p = aPointers[j];
+            int q = bPointers[j];
+            while (p < aPointers[j + 1] || q < bPointers[j + 1]) {
+                int row;
+                double value = 0.0;
+                double variance = 0.0;
+                if (q >= bPointers[j + 1] || (p < aPointers[j + 1] && aRows[p] <= bRows[q])) {
+                    row = aRows[p];
+                }
+                else {
+                    row = bRows[q];
+                }
+                if (p < aPointers[j + 1] && aRows[p] == row) {
+                    value += aValues[p];
+                    variance += square(aValues[p] * a.uncertainties[p]);
+                    p++;
+                }
+                if (q < bPointers[j + 1] && bRows[q] == row) {
+                    value += bValues[q];
+                    variance += square(bValues[q] * b.uncertainties[q]);
+                    q++;
+                }
+                if (0.0 != value) {
+                    resultRows[nz] = row;
+                    resultValues[nz] = value;
+                    resultUncertainties[nz] = relativeUncertainty(value, variance);
+                    nz++;
+                }
+            }
+        }
+        columnPointers[columns] = nz;
+        return new UncertainMatrix(
+                new SparseColumnMatrix(a.values.rows(), columns, columnPointers,
+                                       Arrays.copyOf(resultRows, nz), Arrays.copyOf(resultValues, nz)),
+                Arrays.copyOf(resultUncertainties, nz));
+    }
+
+    protected void ensureCapacity(int rows) {
+        if (valueBuffer.length < rows) {
+            valueBuffer = new double[rows];
+            varianceBuffer = new double[rows];
+            rowsBuffer = new int[rows];
+            marks = new int[rows];
+        }
+        Arrays.fill(marks, -1);
+    }
+
+    protected static double productUncertainty(double u1, double u2) {
+        return Math.sqrt(u1 * u1 + u2 * u2);
+    }
+
+    protected static double relativeUncertainty(double value, double variance) {
+        return 0.0 == value || 0.0 == variance ? 0.0 : Math.sqrt(variance) / Math.abs(value);
+    }
+
+    protected static double square(double value) {
+        return value * value;
+    }
+}
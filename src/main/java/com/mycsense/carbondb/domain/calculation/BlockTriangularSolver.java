@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import com.mycsense.carbondb.SingularMatrixException;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ *     Solves <code>(I - R) x = c</code> component by component, following the topological order
+ *     of the strongly connected components of the process graph.
+ * </p>
+ * <p>
+ *     The value of a process outside of any cycle is obtained by substitution from the values
+ *     of its upstream processes, so an acyclic ontology is solved in a single sweep.
+ *     The cyclic components are factorized once with a sparse LU, or solved with Gauss-Seidel
+ *     iterations when the factorization fails.
+ * </p>
+ */
+public class BlockTriangularSolver implements LinearSolver {
+    protected int n;
+    // compressed row storage of R
+    protected int[] rowPointers;
+    protected int[] columnIndices;
+    protected double[] values;
+    // compressed column storage of R
+    protected int[] columnPointers;
+    protected int[] rowIndices;
+    protected double[] columnValues;
+
+    protected ArrayList<int[]> components;
+    protected int[] componentOf;
+    protected int[] localIndexes;
+    protected LinearSolver[] blockSolvers;
+
+    /**
+     * @param dependencyMatrix the technology matrix R
+     * @param graph the process graph matching the rows and columns of R
+     * @param threshold the convergence threshold, used if a block cannot be factorized
+     * @param maxIterations the maximum number of iterations, used if a block cannot be factorized
+     */
+    public BlockTriangularSolver(SparseColumnMatrix dependencyMatrix,
+                                 ProcessGraph graph,
+                                 double threshold,
+                                 int maxIterations) {
+        SparseColumnMatrix rows = dependencyMatrix.transpose();
+        n = rows.columns();
+        rowPointers = rows.getColumnPointers();
+        columnIndices = rows.getRowIndices();
+        values = rows.getValues();
+        columnPointers = dependencyMatrix.getColumnPointers();
+        rowIndices = dependencyMatrix.getRowIndices();
+        columnValues = dependencyMatrix.getValues();
+
+        components = graph.getComponents();
+        componentOf = new int[n];
+        localIndexes = new int[n];
+        blockSolvers = new LinearSolver[components.size()];
+        for (int c = 0; c < components.size(); c++) {
+            int[] members = components.get(c);
+            for (int k = 0; k < members.length; k++) {
+                componentOf[members[k]] = c;
+                localIndexes[members[k]] = k;
+            }
+        }
+        for (int c = 0; c < components.size(); c++) {
+            if (components.get(c).length > 1) {
+                SparseColumnMatrix block = extractBlock(c);
+                try {
+                    blockSolvers[c] = SparseLU.factorize(block.minusFromIdentity());
+                } catch (SingularMatrixException e) {
+                    blockSolvers[c] = new VectorIterationSolver(block, threshold, maxIterations, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param component the position of a component
+     * @return the diagonal block of R for this component, in the local indexes of the component
+     */
+    protected SparseColumnMatrix extractBlock(int component) {
+        int[] members = components.get(component);
+        int size = members.length;
+        int[] blockPointers = new int[size + 1];
+        for (int k = 0; k < size; k++) {
+            int i = members[k];
+            blockPointers[k + 1] = blockPointers[k];
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                if (componentOf[columnIndices[p]] == component) {
+                    blockPointers[k + 1]++;
+                }
+            }
+        }
+        int[] blockColumns = new int[blockPointers[size]];
+        double[] blockValues = new double[blockPointers[size]];
+        int nz = 0;
+        for (int k = 0; k < size; k++) {
+            int i = members[k];
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                if (componentOf[columnIndices[p]] == component) {
+                    blockColumns[nz] = localIndexes[columnIndices[p]];
+                    blockValues[nz] = values[p];
+                    nz++;
+                }
+            }
+        }
+        // rows of the block stored as columns: this is the transpose of the block
+        return new SparseColumnMatrix(size, size, blockPointers, blockColumns, blockValues).transpose();
+    }
+
+    @Override
+    public void solve(double[] rhs, double[] solution) {
+        for (int c = 0; c < components.size(); c++) {
+            int[] members = components.get(c);
+            if (null == blockSolvers[c]) {
+                int i = members[0];
+                double value = rhs[i];
+                double diagonal = 0.0;
+                for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                    if (columnIndices[p] == i) {
+                        diagonal += values[p];
+                    }
+                    else {
+                        value += values[p] * solution[columnIndices[p]];
+                    }
+                }
+                solution[i] = value / (1.0 - diagonal);
+            }
+            else {
+                double[] blockRhs = new double[members.length];
+                double[] blockSolution = new double[members.length];
+                for (int k = 0; k < members.length; k++) {
+                    int i = members[k];
+                    double value = rhs[i];
+                    for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                        if (componentOf[columnIndices[p]] != c) {
+                            value += values[p] * solution[columnIndices[p]];
+                        }
+                    }
+                    blockRhs[k] = value;
+                }
+                blockSolvers[c].solve(blockRhs, blockSolution);
+                for (int k = 0; k < members.length; k++) {
+                    solution[members[k]] = blockSolution[k];
+                }
+            }
+        }
+    }
+
+    /**
+     * Same sweep as {@link #solve(double[], double[])} on the transposed system: the components are visited
+     * in the reverse topological order, the value of a process depending on its downstream processes.
+     */
+    @Override
+    public void solveTransposed(double[] rhs, double[] solution) {
+        for (int c = components.size() - 1; c >= 0; c--) {
+            int[] members = components.get(c);
+            if (null == blockSolvers[c]) {
+                int j = members[0];
+                double value = rhs[j];
+                double diagonal = 0.0;
+                for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+                    if (rowIndices[p] == j) {
+                        diagonal += columnValues[p];
+                    }
+                    else {
+                        value += columnValues[p] * solution[rowIndices[p]];
+                    }
+                }
+                solution[j] = value / (1.0 - diagonal);
+            }
+            else {
+                double[] blockRhs = new double[members.length];
+                double[] blockSolution = new double[members.length];
+                for (int k = 0; k < members.length; k++) {
+                    int j = members[k];
+                    double value = rhs[j];
+                    for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+                        if (componentOf[rowIndices[p]] != c) {
+                            value += columnValues[p] * solution[rowIndices[p]];
+                        }
+                    }
+                    blockRhs[k] = value;
+                }
+                blockSolvers[c].solveTransposed(blockRhs, blockSolution);
+                for (int k = 0; k < members.length; k++) {
+                    solution[members[k]] = blockSolution[k];
+                }
+            }
+        }
+    }
+}
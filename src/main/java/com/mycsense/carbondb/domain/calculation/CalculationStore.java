@@ -0,0 +1,299 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Persists the results of a calculation in a binary file,
+ *     so that they can be loaded back instead of solving the technology system again.
+ * </p>
+ * <p>
+ *     Only the results are stored: the loaded matrices are copied into arrays,
+ *     and the factorization of the technology system is not persisted, so the first query,
+ *     update of the elementary flows or scenario after a load factorizes the system again.
+ * </p>
+ * <p>
+ *     The file contains a header (magic number, version, SHA-256 hash of the inputs of the calculation),
+ *     the ids of the processes, elementary flow types and impact types matching the rows and columns
+ *     of the matrices, and the matrices in compressed sparse column storage.
+ *     The hash is read first: a file calculated from other inputs is rejected without reading the rest.
+ *     The ids are checked by the calculation against its current indexes before the results are used.
+ * </p>
+ * <p>
+ *     The magic number is written last, a file whose writing was interrupted is therefore never loaded.
+ * </p>
+ */
+public class CalculationStore {
+    protected static final int MAGIC = 0x43444243; // "CDBC"
+    protected static final int VERSION = 1;
+    protected static final int HASH_LENGTH = 32;
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected File file;
+
+    /**
+     * @param file the file containing the state of the calculation
+     */
+    public CalculationStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The results of a calculation, with the identifiers of their rows and columns.
+     */
+    public static class State {
+        public byte[] hash;
+        public ArrayList<String> processIds;
+        public ArrayList<String> elementaryFlowTypeIds;
+        public ArrayList<String> impactTypeIds;
+        public SparseColumnMatrix cumulativeFlows;
+        public SparseColumnMatrix impacts;
+        // null if the uncertainties were not calculated
+        public SparseColumnMatrix cumulativeFlowUncertainties;
+        public SparseColumnMatrix impactUncertainties;
+    }
+
+    /**
+     * Incremental SHA-256 hash of the inputs of a calculation.
+     */
+    public static class ContentHash {
+        protected MessageDigest digest;
+        protected ByteBuffer buffer = ByteBuffer.allocate(8);
+
+        public ContentHash() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public ContentHash update(int value) {
+            buffer.clear();
+            buffer.putInt(value);
+            digest.update(buffer.array(), 0, 4);
+            return this;
+        }
+
+        public ContentHash update(double value) {
+            buffer.clear();
+            buffer.putDouble(value);
+            digest.update(buffer.array(), 0, 8);
+            return this;
+        }
+
+        public ContentHash update(String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            update(bytes.length);
+            digest.update(bytes);
+            return this;
+        }
+
+        public ContentHash update(SparseColumnMatrix matrix) {
+            update(matrix.rows()).update(matrix.columns()).update(matrix.cardinality());
+            for (int pointer : matrix.getColumnPointers()) {
+                update(pointer);
+            }
+            for (int p = 0; p < matrix.cardinality(); p++) {
+                update(matrix.getRowIndices()[p]);
+                update(matrix.getValues()[p]);
+            }
+            return this;
+        }
+
+        /**
+         * @return the hash, the hash cannot be updated anymore
+         */
+        public byte[] digest() {
+            return digest.digest();
+        }
+    }
+
+    /**
+     * Writes the state into the file, replacing its content.
+     *
+     * @param state the state of the calculation
+     * @throws IOException
+     */
+    public void save(State state) throws IOException {
+        long size = 4 + 4 + HASH_LENGTH;
+        ArrayList<byte[]> ids = new ArrayList<>();
+        for (ArrayList<String> table : idTables(state)) {
+            size += 4;
+            for (String id : table) {
+                byte[] bytes = id.getBytes(UTF8);
+                ids.add(bytes);
+                size += 4 + bytes.length;
+            }
+        }
+        for (SparseColumnMatrix matrix : matrices(state)) {
+            size += 1;
+            if (null != matrix) {
+                size += 4 * 3 + 4L * (matrix.columns() + 1) + 12L * matrix.cardinality();
+            }
+        }
+
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw");
+             FileChannel channel = output.getChannel()) {
+            output.setLength(0);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0);
+            buffer.putInt(VERSION);
+            buffer.put(state.hash);
+            int position = 0;
+            for (ArrayList<String> table : idTables(state)) {
+                buffer.putInt(table.size());
+                for (int k = 0; k < table.size(); k++) {
+                    byte[] bytes = ids.get(position++);
+                    buffer.putInt(bytes.length);
+                    buffer.put(bytes);
+                }
+            }
+            for (SparseColumnMatrix matrix : matrices(state)) {
+                buffer.put((byte) (null == matrix ? 0 : 1));
+                if (null != matrix) {
+                    buffer.putInt(matrix.rows());
+                    buffer.putInt(matrix.columns());
+                    buffer.putInt(matrix.cardinality());
+                    buffer.asIntBuffer().put(matrix.getColumnPointers(), 0, matrix.columns() + 1);
+                    buffer.position(buffer.position() + 4 * (matrix.columns() + 1));
+                    buffer.asIntBuffer().put(matrix.getRowIndices(), 0, matrix.cardinality());
+                    buffer.position(buffer.position() + 4 * matrix.cardinality());
+                    buffer.asDoubleBuffer().put(matrix.getValues(), 0, matrix.cardinality());
+                    buffer.position(buffer.position() + 8 * matrix.cardinality());
+                }
+            }
+            buffer.force();
+            buffer.putInt(0, MAGIC);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Reads the state from the file if it was calculated from the same inputs.
+     *
+     * @param hash the hash of the inputs of the calculation
+     * @return the state, or null if the file does not exist or was calculated from other inputs
+     * @throws IOException if the file is not a valid state file
+     */
+    public State load(byte[] hash) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 4 + 4 + HASH_LENGTH || MAGIC != buffer.getInt()) {
+                throw new IOException("The file " + file + " is not a calculation state file");
+            }
+            int version = buffer.getInt();
+            if (VERSION != version) {
+                throw new IOException("The version " + version + " of the file " + file + " is not supported");
+            }
+            State state = new State();
+            state.hash = new byte[HASH_LENGTH];
+            buffer.get(state.hash);
+            if (!Arrays.equals(hash, state.hash)) {
+                return null;
+            }
+            state.processIds = readIds(buffer);
+            state.elementaryFlowTypeIds = readIds(buffer);
+            state.impactTypeIds = readIds(buffer);
+            state.cumulativeFlows = readMatrix(buffer);
+            state.impacts = readMatrix(buffer);
+            state.cumulativeFlowUncertainties = readMatrix(buffer);
+            state.impactUncertainties = readMatrix(buffer);
+            return state;
+        } catch (RuntimeException e) {
+            // buffer underflow or negative sizes in a truncated or corrupted file
+            throw new IOException("The file " + file + " is corrupted", e);
+        }
+    }
+
+    protected ArrayList<String> readIds(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        ArrayList<String> ids = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            ids.add(new String(bytes, UTF8));
+        }
+        return ids;
+    }
+
+    protected SparseColumnMatrix readMatrix(ByteBuffer buffer) {
+        if (0 == buffer.get()) {
+            return null;
+        }
+        int rows = buffer.getInt();
+        int columns = buffer.getInt();
+        int cardinality = buffer.getInt();
+        int[] pointers = new int[columns + 1];
+        int[] rowIndices = new int[cardinality];
+        double[] values = new double[cardinality];
+        buffer.asIntBuffer().get(pointers);
+        buffer.position(buffer.position() + 4 * pointers.length);
+        buffer.asIntBuffer().get(rowIndices);
+        buffer.position(buffer.position() + 4 * cardinality);
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * cardinality);
+        return new SparseColumnMatrix(rows, columns, pointers, rowIndices, values);
+    }
+
+    protected ArrayList<ArrayList<String>> idTables(State state) {
+        ArrayList<ArrayList<String>> tables = new ArrayList<>();
+        tables.add(state.processIds);
+        tables.add(state.elementaryFlowTypeIds);
+        tables.add(state.impactTypeIds);
+        return tables;
+    }
+
+    protected SparseColumnMatrix[] matrices(State state) {
+        return new SparseColumnMatrix[] {
+            state.cumulativeFlows,
+            state.impacts,
+            state.cumulativeFlowUncertainties,
+            state.impactUncertainties
+        };
+    }
+
+    /**
+     * @return the file containing the state of the calculation
+     */
+    public File getFile() {
+        return file;
+    }
+}
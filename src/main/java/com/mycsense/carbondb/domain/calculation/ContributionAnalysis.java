@@ -0,0 +1,263 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import com.mycsense.carbondb.domain.ContributionPath;
+import com.mycsense.carbondb.domain.DerivedRelation;
+import com.mycsense.carbondb.domain.ImpactType;
+import com.mycsense.carbondb.domain.IndexRegistry;
+import com.mycsense.carbondb.domain.Process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ *     Finds the paths of derived relations upstream of a process contributing the most to one of its impacts.
+ * </p>
+ * <p>
+ *     The impact of a process is the impact of its own elementary flows plus, for each upstream relation,
+ *     the multiplier of the relation times the impact of the source process. Unfolding this recursion gives
+ *     a tree of paths whose direct contributions sum up to the impact. The tree is explored best-first,
+ *     the priority of a branch being its cumulative contribution: the branches whose cumulative contribution
+ *     is lower than the cutoff are never explored, which also stops the exploration of the cycles.
+ * </p>
+ * <p>
+ *     The impacts of the processes for an impact type and the upstream relations of a process sorted
+ *     by cumulative contribution are computed by the first query needing them and reused by the next ones.
+ *     The pruning is exact as long as the impacts and the multipliers are not negative.
+ * </p>
+ */
+public class ContributionAnalysis {
+    protected IndexRegistry<Process> processes;
+    protected IndexRegistry<ImpactType> impactTypes;
+    protected SparseColumnMatrix cumulativeImpacts;
+    protected SparseColumnMatrix directImpacts;
+    protected int maxExpansions = 100000;
+
+    protected HashMap<Integer, double[]> cumulativeColumns = new HashMap<>();
+    protected HashMap<Integer, double[]> directColumns = new HashMap<>();
+    protected HashMap<Long, Edge[]> upstreamEdges = new HashMap<>();
+
+    /**
+     * @param processes the processes matching the rows of the impacts matrices
+     * @param impactTypes the impact types matching the columns of the impacts matrices
+     * @param cumulativeImpacts the impacts of the processes
+     * @param directImpacts the impacts of the elementary flows of the processes only
+     */
+    public ContributionAnalysis(IndexRegistry<Process> processes,
+                                IndexRegistry<ImpactType> impactTypes,
+                                SparseColumnMatrix cumulativeImpacts,
+                                SparseColumnMatrix directImpacts) {
+        this.processes = processes;
+        this.impactTypes = impactTypes;
+        this.cumulativeImpacts = cumulativeImpacts;
+        this.directImpacts = directImpacts;
+    }
+
+    protected static class Edge {
+        protected DerivedRelation relation;
+        protected int source;
+        protected double multiplier;
+        // absolute value of the multiplier times the impact of the source
+        protected double contribution;
+    }
+
+    protected static class Branch {
+        protected Branch parent;
+        protected Edge edge;
+        protected int process;
+        protected double multiplier;
+        protected double direct;
+        protected double priority;
+    }
+
+    /**
+     * @param process the analysed process
+     * @param impactType the analysed impact type
+     * @param count the maximum number of paths returned, at least 1
+     * @param cutoff the fraction of the impact of the process under which a branch is not explored, in ]0, 1]
+     * @return the paths with the largest direct contributions, by decreasing contribution
+     */
+    public synchronized ArrayList<ContributionPath> analyse(Process process, ImpactType impactType,
+                                                          int count, double cutoff) {
+        if (count < 1) {
+            throw new IllegalArgumentException("The number of paths must be at least 1: " + count);
+        }
+        if (cutoff <= 0.0 || cutoff > 1.0) {
+            throw new IllegalArgumentException("The cutoff must be in ]0, 1]: " + cutoff);
+        }
+        int root = processes.indexOf(process);
+        int type = impactTypes.indexOf(impactType);
+        if (-1 == root || -1 == type || root >= cumulativeImpacts.rows() || type >= cumulativeImpacts.columns()) {
+            throw new IllegalArgumentException("The process " + process.getId() + " or the impact type "
+                                               + impactType.getId() + " is not in the calculation");
+        }
+        double[] cumulative = column(cumulativeImpacts, cumulativeColumns, type);
+        double[] direct = column(directImpacts, directColumns, type);
+        double threshold = cutoff * Math.abs(cumulative[root]);
+
+        PriorityQueue<Branch> open = new PriorityQueue<>(64, new Comparator<Branch>() {
+            @Override
+            public int compare(Branch a, Branch b) {
+                return Double.compare(b.priority, a.priority);
+            }
+        });
+        // the smallest of the kept paths is at the head
+        PriorityQueue<Branch> kept = new PriorityQueue<>(count + 1, new Comparator<Branch>() {
+            @Override
+            public int compare(Branch a, Branch b) {
+                return Double.compare(Math.abs(a.direct), Math.abs(b.direct));
+            }
+        });
+
+        Branch start = new Branch();
+        start.process = root;
+        start.multiplier = 1.0;
+        start.direct = direct[root];
+        start.priority = Math.abs(cumulative[root]);
+        open.add(start);
+        int expansions = 0;
+        while (!open.isEmpty() && expansions < maxExpansions) {
+            Branch branch = open.poll();
+            if (branch.priority < threshold
+                || (kept.size() == count && branch.priority <= Math.abs(kept.peek().direct))) {
+                break;
+            }
+            expansions++;
+            if (0.0 != branch.direct && Math.abs(branch.direct) >= threshold) {
+                kept.add(branch);
+                if (kept.size() > count) {
+                    kept.poll();
+                }
+            }
+            for (Edge edge : edges(branch.process, type, cumulative)) {
+                double priority = Math.abs(branch.multiplier) * edge.contribution;
+                if (priority < threshold) {
+                    break;
+                }
+                Branch child = new Branch();
+                child.parent = branch;
+                child.edge = edge;
+                child.process = edge.source;
+                child.multiplier = branch.multiplier * edge.multiplier;
+                child.direct = child.multiplier * direct[edge.source];
+                child.priority = priority;
+                open.add(child);
+            }
+        }
+
+        double scale = process.getUnit().getConversionFactor();
+        ArrayList<ContributionPath> paths = new ArrayList<>();
+        while (!kept.isEmpty()) {
+            Branch branch = kept.poll();
+            ArrayList<DerivedRelation> relations = new ArrayList<>();
+            for (Branch b = branch; null != b.parent; b = b.parent) {
+                relations.add(b.edge.relation);
+            }
+            Collections.reverse(relations);
+            paths.add(new ContributionPath(process,
+                                           impactType,
+                                           relations,
+                                           branch.multiplier,
+                                           branch.direct * scale,
+                                           branch.multiplier * cumulative[branch.process] * scale));
+        }
+        Collections.reverse(paths);
+        return paths;
+    }
+
+    /**
+     * @param process the index of a process
+     * @param type the index of an impact type
+     * @param cumulative the impacts of the processes for the impact type
+     * @return the upstream relations of the process, by decreasing cumulative contribution
+     */
+    protected Edge[] edges(int process, int type, double[] cumulative) {
+        long key = (long) process * impactTypes.size() + type;
+        Edge[] edges = upstreamEdges.get(key);
+        if (null == edges) {
+            ArrayList<Edge> found = new ArrayList<>();
+            for (DerivedRelation relation : processes.get(process).getUpstreamDerivedRelations()) {
+                int source = processes.indexOf(relation.getSource());
+                if (-1 == source || source >= cumulative.length) {
+                    continue;
+                }
+                Edge edge = new Edge();
+                edge.relation = relation;
+                edge.source = source;
+                edge.multiplier = relation.getMultiplier();
+                edge.contribution = Math.abs(edge.multiplier * cumulative[source]);
+                if (0.0 != edge.contribution) {
+                    found.add(edge);
+                }
+            }
+            edges = found.toArray(new Edge[found.size()]);
+            Arrays.sort(edges, new Comparator<Edge>() {
+                @Override
+                public int compare(Edge a, Edge b) {
+                    return Double.compare(b.contribution, a.contribution);
+                }
+            });
+            upstreamEdges.put(key, edges);
+        }
+        return edges;
+    }
+
+    /**
+     * @param matrix a matrix
+     * @param cache the columns of the matrix already computed
+     * @param j the index of a column
+     * @return the dense column
+     */
+    protected double[] column(SparseColumnMatrix matrix, HashMap<Integer, double[]> cache, int j) {
+        double[] column = cache.get(j);
+        if (null == column) {
+            column = new double[matrix.rows()];
+            int[] pointers = matrix.getColumnPointers();
+            for (int p = pointers[j]; p < pointers[j + 1]; p++) {
+                column[matrix.getRowIndices()[p]] = matrix.getValues()[p];
+            }
+            cache.put(j, column);
+        }
+        return column;
+    }
+
+    /**
+     * @return the maximum number of branches explored by a query
+     */
+    public int getMaxExpansions() {
+        return maxExpansions;
+    }
+
+    /**
+     * @param maxExpansions the maximum number of branches explored by a query
+     */
+    public void setMaxExpansions(int maxExpansions) {
+        this.maxExpansions = maxExpansions;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import org.la4j.matrix.Matrix;
+import org.la4j.matrix.functor.MatrixProcedure;
+
+/**
+ * <p>
+ *     Tracks the convergence of an iterative calculation by looking only at the changes
+ *     made by the latest iteration, i.e. the non zero entries of the latest term <code>R<sup>n</sup></code>
+ *     of the power series or the values updated by the latest vector sweep.
+ * </p>
+ * <p>
+ *     The iteration has converged when the maximum absolute change is lower than the absolute threshold,
+ *     or when the maximum change relative to the updated values is lower than the relative threshold.
+ *     A threshold lower than or equal to zero is disabled.
+ * </p>
+ * <p>
+ *     A tracker is not thread safe: each right-hand side solved concurrently needs its own tracker.
+ * </p>
+ */
+public class ConvergenceTracker {
+    protected double absoluteThreshold;
+    protected double relativeThreshold;
+    protected int iterations = 0;
+    protected double maxAbsoluteChange = Double.POSITIVE_INFINITY;
+    protected double maxRelativeChange = Double.POSITIVE_INFINITY;
+
+    /**
+     * @param absoluteThreshold the threshold on the absolute changes
+     * @param relativeThreshold the threshold on the relative changes
+     */
+    public ConvergenceTracker(double absoluteThreshold, double relativeThreshold) {
+        this.absoluteThreshold = absoluteThreshold;
+        this.relativeThreshold = relativeThreshold;
+    }
+
+    /**
+     * Starts a new iteration, resetting the maximum changes.
+     */
+    public void startIteration() {
+        iterations++;
+        maxAbsoluteChange = 0.0;
+        maxRelativeChange = 0.0;
+    }
+
+    /**
+     * Records the change of one value during the current iteration.
+     *
+     * @param change the difference between the updated value and the previous one
+     * @param value the updated value
+     */
+    public void record(double change, double value) {
+        double absoluteChange = Math.abs(change);
+        if (absoluteChange > maxAbsoluteChange) {
+            maxAbsoluteChange = absoluteChange;
+        }
+        if (0.0 != absoluteChange) {
+            double relativeChange = 0.0 == value ? Double.POSITIVE_INFINITY : absoluteChange / Math.abs(value);
+            if (relativeChange > maxRelativeChange) {
+                maxRelativeChange = relativeChange;
+            }
+        }
+    }
+
+    /**
+     * Starts a new iteration and records the term added to a sum of matrices.
+     * The sum is only read when the relative threshold is enabled.
+     *
+     * @param term the term added during this iteration
+     * @param sum the sum, the term included
+     */
+    public void record(Matrix term, final Matrix sum) {
+        startIteration();
+        term.eachNonZero(new MatrixProcedure() {
+            @Override
+            public void apply(int i, int j, double value) {
+                record(value, relativeThreshold > 0.0 ? sum.get(i, j) : value);
+            }
+        });
+    }
+
+    /**
+     * @return true if the latest iteration changed the values by less than one of the thresholds
+     */
+    public boolean hasConverged() {
+        return (absoluteThreshold > 0.0 && maxAbsoluteChange < absoluteThreshold)
+               || (relativeThreshold > 0.0 && maxRelativeChange < relativeThreshold);
+    }
+
+    /**
+     * @return the number of iterations recorded
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the maximum absolute change of the latest iteration
+     */
+    public double getMaxAbsoluteChange() {
+        return maxAbsoluteChange;
+    }
+
+    /**
+     * @return the maximum relative change of the latest iteration,
+     *         only computed from the terms when the relative threshold is enabled
+     */
+    public double getMaxRelativeChange() {
+        return maxRelativeChange;
+    }
+}
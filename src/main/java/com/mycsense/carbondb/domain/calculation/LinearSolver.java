@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+/**
+ * Solves the technology system <code>(I - R) x = b</code> for one right-hand side at a time.
+ */
+public interface LinearSolver {
+    /**
+     * @param rhs the right-hand side <code>b</code>, left untouched
+     * @param solution array receiving <code>x</code>, of the same length as rhs
+     */
+    public void solve(double[] rhs, double[] solution);
+
+    /**
+     * Solves the transposed system <code>(I - R)<sup>T</sup> y = b</code>: with <code>b = e<sub>i</sub></code>,
+     * <code>y<sup>T</sup> C</code> is the row i of the solutions of <code>(I - R) X = C</code>.
+     *
+     * @param rhs the right-hand side <code>b</code>, left untouched
+     * @param solution array receiving <code>y</code>, of the same length as rhs
+     */
+    public void solveTransposed(double[] rhs, double[] solution);
+}
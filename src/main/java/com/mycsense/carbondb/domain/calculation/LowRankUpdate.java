@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Updates the solutions of <code>(I - R) X = C</code> after a change <code>D</code> of a few columns of
+ *     <code>R</code>, without solving the whole system again.
+ * </p>
+ * <p>
+ *     With <code>A = I - R</code>, the change is written <code>D = U V<sup>T</sup></code> where the columns of
+ *     <code>U</code> are the changed columns of <code>R</code> and the columns of <code>V</code> select them.
+ *     The Woodbury identity gives
+ *     <code>X' = X + Z (I - V<sup>T</sup> Z)<sup>-1</sup> V<sup>T</sup> X</code> with <code>Z = A<sup>-1</sup> U</code>,
+ *     so the update costs one solve per changed column, and a dense solve of the size of the number of changed
+ *     columns for each solution column. Only the rows where <code>Z</code> is not zero, i.e. the processes
+ *     downstream of the change, can move.
+ * </p>
+ */
+public class LowRankUpdate {
+    protected int n;
+    protected SparseColumnMatrix delta;
+    protected int[] sources;
+    protected double[][] z;
+    protected double[][] capacitance;
+    protected int[] pivots;
+    protected int[] affectedRows;
+
+    /**
+     * @param delta the change of the technology matrix R
+     */
+    public LowRankUpdate(SparseColumnMatrix delta) {
+        this.delta = delta;
+        n = delta.rows();
+        int[] pointers = delta.getColumnPointers();
+        int[] columns = new int[delta.columns()];
+        int k = 0;
+        for (int j = 0; j < delta.columns(); j++) {
+            if (pointers[j + 1] > pointers[j]) {
+                columns[k++] = j;
+            }
+        }
+        sources = Arrays.copyOf(columns, k);
+    }
+
+    /**
+     * @return the number of changed columns of R
+     */
+    public int rank() {
+        return sources.length;
+    }
+
+    /**
+     * Solves the system for the changed columns and factorizes the capacitance matrix
+     * <code>I - V<sup>T</sup> Z</code>.
+     *
+     * @param solver the solver of the system before the change
+     * @return false if the changed system is singular, in which case the update cannot be applied
+     */
+    public boolean prepare(LinearSolver solver) {
+        return prepare(solver, null, null);
+    }
+
+    /**
+     * Prepares the update, reusing the solutions of a previous update against the same solver
+     * for the columns that did not change since.
+     *
+     * @param solver the solver of the system before the change
+     * @param previous a previous update prepared against the same solver, or null
+     * @param change the change of the columns since the previous update, or null if there is no previous update
+     * @return false if the changed system is singular, in which case the update cannot be applied
+     */
+    public boolean prepare(LinearSolver solver, LowRankUpdate previous, SparseColumnMatrix change) {
+        int k = sources.length;
+        int[] pointers = delta.getColumnPointers();
+        int[] rows = delta.getRowIndices();
+        double[] values = delta.getValues();
+        z = new double[k][n];
+        double[] b = new double[n];
+        int reused = 0;
+        for (int e = 0; e < k; e++) {
+            if (null != previous) {
+                int[] changePointers = change.getColumnPointers();
+                int j = sources[e];
+                while (reused < previous.sources.length && previous.sources[reused] < j) {
+                    reused++;
+                }
+                if (reused < previous.sources.length && previous.sources[reused] == j
+                    && changePointers[j + 1] == changePointers[j]) {
+                    z[e] = previous.z[reused];
+                    continue;
+                }
+            }
+            Arrays.fill(b, 0.0);
+            for (int p = pointers[sources[e]]; p < pointers[sources[e] + 1]; p++) {
+                b[rows[p]] = values[p];
+            }
+            solver.solve(b, z[e]);
+        }
+
+        capacitance = new double[k][k];
+        for (int a = 0; a < k; a++) {
+            for (int e = 0; e < k; e++) {
+                capacitance[a][e] = (a == e ? 1.0 : 0.0) - z[e][sources[a]];
+            }
+        }
+        if (!factorizeCapacitance()) {
+            return false;
+        }
+
+        int[] affected = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            for (int e = 0; e < k; e++) {
+                if (0.0 != z[e][i]) {
+                    affected[count++] = i;
+                    break;
+                }
+            }
+        }
+        affectedRows = Arrays.copyOf(affected, count);
+        return true;
+    }
+
+    /**
+     * LU factorization with partial pivoting of the capacitance matrix, in place.
+     *
+     * @return false if the matrix is singular
+     */
+    protected boolean factorizeCapacitance() {
+        int k = sources.length;
+        pivots = new int[k];
+        for (int c = 0; c < k; c++) {
+            int pivot = c;
+            for (int r = c + 1; r < k; r++) {
+                if (Math.abs(capacitance[r][c]) > Math.abs(capacitance[pivot][c])) {
+                    pivot = r;
+                }
+            }
+            if (Double.isNaN(capacitance[pivot][c]) || Math.abs(capacitance[pivot][c]) < SparseLU.PIVOT_TOLERANCE) {
+                return false;
+            }
+            pivots[c] = pivot;
+            double[] swap = capacitance[c];
+            capacitance[c] = capacitance[pivot];
+            capacitance[pivot] = swap;
+            for (int r = c + 1; r < k; r++) {
+                capacitance[r][c] /= capacitance[c][c];
+                for (int q = c + 1; q < k; q++) {
+                    capacitance[r][q] -= capacitance[r][c] * capacitance[c][q];
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the sorted indexes of the rows that can move, available after {@link #prepare(LinearSolver)}
+     */
+    public int[] getAffectedRows() {
+        return affectedRows;
+    }
+
+    /**
+     * @return the indexes of the changed columns of R, i.e. the rows of a solution needed by the correction
+     */
+    public int[] getSources() {
+        return sources;
+    }
+
+    /**
+     * Computes the correction of one solution column.
+     *
+     * @param sourceValues the values of the solution column before the change at the rows {@link #getSources()}
+     * @return the corrections to add to the rows {@link #getAffectedRows()}
+     */
+    public double[] correction(double[] sourceValues) {
+        int k = sources.length;
+        double[] y = sourceValues.clone();
+        solveCapacitance(y);
+
+        double[] corrections = new double[affectedRows.length];
+        for (int a = 0; a < affectedRows.length; a++) {
+            double value = 0.0;
+            for (int e = 0; e < k; e++) {
+                value += z[e][affectedRows[a]] * y[e];
+            }
+            corrections[a] = value;
+        }
+        return corrections;
+    }
+
+    /**
+     * Corrects a whole solution of the system before the change into the solution of the changed system.
+     *
+     * @param solution the solution before the change, corrected in place
+     */
+    public void apply(double[] solution) {
+        int k = sources.length;
+        double[] y = new double[k];
+        for (int e = 0; e < k; e++) {
+            y[e] = solution[sources[e]];
+        }
+        solveCapacitance(y);
+        for (int e = 0; e < k; e++) {
+            if (0.0 != y[e]) {
+                for (int i = 0; i < n; i++) {
+                    solution[i] += z[e][i] * y[e];
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves <code>(I - V<sup>T</sup> Z) y = b</code> with the factorized capacitance matrix.
+     *
+     * @param y the right-hand side, replaced by the solution
+     */
+    protected void solveCapacitance(double[] y) {
+        int k = sources.length;
+        for (int c = 0; c < k; c++) {
+            double swap = y[c];
+            y[c] = y[pivots[c]];
+            y[pivots[c]] = swap;
+        }
+        for (int c = 0; c < k; c++) {
+            for (int r = c + 1; r < k; r++) {
+                y[r] -= capacitance[r][c] * y[c];
+            }
+        }
+        for (int c = k - 1; c >= 0; c--) {
+            for (int q = c + 1; q < k; q++) {
+                y[c] -= capacitance[c][q] * y[q];
+            }
+            y[c] /= capacitance[c][c];
+        }
+    }
+
+    /**
+     * Solves the transposed capacitance system <code>(I - V<sup>T</sup> Z)<sup>T</sup> y = b</code>.
+     *
+     * @param y the right-hand side, replaced by the solution
+     */
+    public void solveCapacitanceTransposed(double[] y) {
+        int k = sources.length;
+        // P C = L U, so C^T = U^T L^T P
+        for (int c = 0; c < k; c++) {
+            for (int q = 0; q < c; q++) {
+                y[c] -= capacitance[q][c] * y[q];
+            }
+            y[c] /= capacitance[c][c];
+        }
+        for (int c = k - 1; c >= 0; c--) {
+            for (int r = c + 1; r < k; r++) {
+                y[c] -= capacitance[r][c] * y[r];
+            }
+        }
+        for (int c = k - 1; c >= 0; c--) {
+            double swap = y[c];
+            y[c] = y[pivots[c]];
+            y[pivots[c]] = swap;
+        }
+    }
+
+    /**
+     * @return the change of the technology matrix R
+     */
+    public SparseColumnMatrix getDelta() {
+        return delta;
+    }
+}
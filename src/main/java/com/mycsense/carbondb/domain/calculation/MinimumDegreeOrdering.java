@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Fill-reducing symmetric ordering using the minimum degree heuristic
+ *     on the pattern of <code>A + A<sup>T</sup></code>.
+ * </p>
+ * <p>
+ *     The elimination graph is represented as a quotient graph, as in the approximate minimum degree ordering:
+ *     an eliminated node becomes an element holding the list of its neighbours instead of turning them into a clique,
+ *     and the elements adjacent to a pivot are absorbed into the new element.
+ *     The degrees are approximated from the sizes of the adjacent elements, so the cost of a pivot is linear
+ *     in the size of its neighbourhood.
+ * </p>
+ * <p>
+ *     The dense nodes, such as a process connected to thousands of others, are removed from the graph
+ *     and ordered last.
+ * </p>
+ */
+public class MinimumDegreeOrdering {
+    /**
+     * @param matrix a square matrix
+     * @return the permutation, where permutation[k] is the index of the row and column eliminated at step k
+     */
+    public static int[] order(SparseColumnMatrix matrix) {
+        int n = matrix.columns();
+        int[] columnPointers = matrix.getColumnPointers();
+        int[] rowIndices = matrix.getRowIndices();
+
+        // adjacent variables of every node, without duplicates
+        int[] variableCounts = new int[n];
+        for (int j = 0; j < n; j++) {
+            for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+                if (rowIndices[p] != j) {
+                    variableCounts[rowIndices[p]]++;
+                    variableCounts[j]++;
+                }
+            }
+        }
+        int denseDegree = Math.max(16, (int) (10 * Math.sqrt(n)));
+        boolean[] dense = new boolean[n];
+        int denseCount = 0;
+        for (int j = 0; j < n; j++) {
+            if (variableCounts[j] > denseDegree) {
+                dense[j] = true;
+                denseCount++;
+            }
+        }
+        int[][] variables = new int[n][];
+        for (int j = 0; j < n; j++) {
+            variables[j] = new int[dense[j] ? 0 : variableCounts[j]];
+            variableCounts[j] = 0;
+        }
+        for (int j = 0; j < n; j++) {
+            for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+                int i = rowIndices[p];
+                if (i != j && !dense[i] && !dense[j]) {
+                    variables[i][variableCounts[i]++] = j;
+                    variables[j][variableCounts[j]++] = i;
+                }
+            }
+        }
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        for (int j = 0; j < n; j++) {
+            int count = 0;
+            for (int q = 0; q < variableCounts[j]; q++) {
+                int i = variables[j][q];
+                if (mark[i] != j) {
+                    mark[i] = j;
+                    variables[j][count++] = i;
+                }
+            }
+            variableCounts[j] = count;
+        }
+
+        // adjacent elements of every node, and the variables of every element
+        int[][] elements = new int[n][];
+        int[] elementCounts = new int[n];
+        int[][] members = new int[n][];
+        for (int j = 0; j < n; j++) {
+            elements[j] = new int[0];
+        }
+
+        DegreeLists degrees = new DegreeLists(n);
+        for (int j = 0; j < n; j++) {
+            if (!dense[j]) {
+                degrees.insert(j, variableCounts[j]);
+            }
+        }
+
+        Arrays.fill(mark, -1);
+        int[] weightMark = new int[n];
+        Arrays.fill(weightMark, -1);
+        int[] weights = new int[n];
+        int[] work = new int[n];
+        int[] permutation = new int[n];
+        int sparseCount = n - denseCount;
+        for (int j = 0, k = sparseCount; j < n; j++) {
+            if (dense[j]) {
+                permutation[k++] = j;
+            }
+        }
+        for (int k = 0; k < sparseCount; k++) {
+            int pivot = degrees.removeMinimum();
+            permutation[k] = pivot;
+
+            // the variables of the new element: the neighbours of the pivot, through its variables and elements
+            mark[pivot] = k;
+            int size = 0;
+            for (int q = 0; q < variableCounts[pivot]; q++) {
+                int i = variables[pivot][q];
+                if (mark[i] != k) {
+                    mark[i] = k;
+                    work[size++] = i;
+                }
+            }
+            for (int q = 0; q < elementCounts[pivot]; q++) {
+                int e = elements[pivot][q];
+                for (int i: members[e]) {
+                    if (mark[i] != k) {
+                        mark[i] = k;
+                        work[size++] = i;
+                    }
+                }
+                // absorbed in the new element
+                members[e] = null;
+            }
+            int[] element = Arrays.copyOf(work, size);
+            members[pivot] = element;
+            variables[pivot] = null;
+            elements[pivot] = null;
+
+            // weights[e] = |members(e) \ element| for the other elements adjacent to the new element
+            for (int i: element) {
+                for (int q = 0; q < elementCounts[i]; q++) {
+                    int e = elements[i][q];
+                    if (null != members[e]) {
+                        if (weightMark[e] != k) {
+                            weightMark[e] = k;
+                            weights[e] = members[e].length;
+                        }
+                        weights[e]--;
+                    }
+                }
+            }
+
+            int remaining = sparseCount - k - 1;
+            for (int i: element) {
+                degrees.remove(i);
+                int degree = size - 1;
+                // elements included in the new element are absorbed as well
+                int count = 0;
+                for (int q = 0; q < elementCounts[i]; q++) {
+                    int e = elements[i][q];
+                    if (null != members[e] && 0 == weights[e]) {
+                        members[e] = null;
+                    }
+                    if (null != members[e]) {
+                        elements[i][count++] = e;
+                        degree += weights[e];
+                    }
+                }
+                if (count == elements[i].length) {
+                    elements[i] = Arrays.copyOf(elements[i], 2 * count + 1);
+                }
+                elements[i][count++] = pivot;
+                elementCounts[i] = count;
+                // the variables of the new element are reached through it
+                count = 0;
+                for (int q = 0; q < variableCounts[i]; q++) {
+                    int j = variables[i][q];
+                    if (mark[j] != k) {
+                        variables[i][count++] = j;
+                        degree++;
+                    }
+                }
+                variableCounts[i] = count;
+                degrees.insert(i, Math.max(0, Math.min(degree, remaining - 1)));
+            }
+        }
+        return permutation;
+    }
+
+    /**
+     * Nodes bucketed by degree in doubly linked lists, the node of minimum degree being found in amortized constant time.
+     */
+    protected static class DegreeLists {
+        protected int[] heads;
+        protected int[] next;
+        protected int[] previous;
+        protected int[] degrees;
+        protected int minimum;
+
+        protected DegreeLists(int n) {
+            heads = new int[Math.max(n, 1)];
+            Arrays.fill(heads, -1);
+            next = new int[n];
+            previous = new int[n];
+            degrees = new int[n];
+        }
+
+        protected void insert(int node, int degree) {
+            degrees[node] = degree;
+            previous[node] = -1;
+            next[node] = heads[degree];
+            if (-1 != heads[degree]) {
+                previous[heads[degree]] = node;
+            }
+            heads[degree] = node;
+            minimum = Math.min(minimum, degree);
+        }
+
+        protected void remove(int node) {
+            if (-1 != previous[node]) {
+                next[previous[node]] = next[node];
+            }
+            else {
+                heads[degrees[node]] = next[node];
+            }
+            if (-1 != next[node]) {
+                previous[next[node]] = previous[node];
+            }
+        }
+
+        protected int removeMinimum() {
+            while (-1 == heads[minimum]) {
+                minimum++;
+            }
+            int node = heads[minimum];
+            remove(node);
+            return node;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import com.mycsense.carbondb.SingularMatrixException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ *     Propagates the uncertainties of the coefficients and of the elementary flows to the impacts
+ *     by Monte Carlo sampling.
+ * </p>
+ * <p>
+ *     The uncertainties are relative standard deviations in percent. Each value is sampled from a lognormal
+ *     distribution having the value as mean and the given relative standard deviation, which keeps the sign
+ *     of the value. A coefficient used by several relations is sampled once per sample, so the correlation
+ *     between these relations is preserved.
+ * </p>
+ * <p>
+ *     The matrix <code>I - R</code> is factorized once with its nominal values, then each sample
+ *     reuses this ordering and this structure and only computes the values of the factors.
+ *     The impacts of each sample are obtained by solving <code>(I - R) Y = C W<sup>T</sup></code>,
+ *     one solve per impact type.
+ * </p>
+ * <p>
+ *     The samples are split between the workers, the worker <code>w</code> using the seed
+ *     <code>seed + w</code>, and the statistics of the workers are merged in the order of the workers:
+ *     with the same seed and the same number of workers, the results are reproducible.
+ *     Each worker keeps statistics for every process and impact type.
+ * </p>
+ */
+public class MonteCarloSimulation {
+    protected int n;
+    protected SparseColumnMatrix ecologicalMatrix;
+    protected double[] ecologicalUncertainties;
+    protected SparseColumnMatrix flowToImpactsMatrix;
+    protected double[] scales;
+    protected double relativeAccuracy = 0.01;
+
+    protected double[] parameterValues = new double[16];
+    protected double[] parameterUncertainties = new double[16];
+    protected int parameterCount = 0;
+
+    protected TripletMatrixBuilder contributionsPattern;
+    protected ArrayList<int[]> contributions = new ArrayList<>();
+    protected ArrayList<Double> contributionFactors = new ArrayList<>();
+
+    // pattern of I - R and the positions of the contributions and of the diagonal in its values
+    protected SparseColumnMatrix systemPattern;
+    protected int[] contributionPositions;
+    protected int[] contributionParameters;
+    protected double[] contributionScales;
+    protected boolean[] contributionInverted;
+    protected int[] diagonalPositions;
+    protected SparseLU symbolicFactorization;
+
+    protected AtomicInteger failedSamples = new AtomicInteger();
+
+    /**
+     * @param processCount the number of processes
+     * @param ecologicalMatrix the ecology matrix C, processes x elementary flow types
+     * @param ecologicalUncertainties the uncertainties of the non zero values of C, in the same order
+     * @param flowToImpactsMatrix the matrix W, impact types x elementary flow types
+     * @param scales the factor applied to the impacts of each process
+     */
+    public MonteCarloSimulation(int processCount,
+                                SparseColumnMatrix ecologicalMatrix,
+                                double[] ecologicalUncertainties,
+                                SparseColumnMatrix flowToImpactsMatrix,
+                                double[] scales) {
+        n = processCount;
+        this.ecologicalMatrix = ecologicalMatrix;
+        this.ecologicalUncertainties = ecologicalUncertainties;
+        this.flowToImpactsMatrix = flowToImpactsMatrix;
+        this.scales = scales;
+        contributionsPattern = new TripletMatrixBuilder(n, n);
+    }
+
+    /**
+     * Adds a sampled parameter, i.e. a coefficient.
+     *
+     * @param value the nominal value
+     * @param uncertainty the relative standard deviation in percent
+     * @return the index of the parameter
+     */
+    public int addParameter(double value, double uncertainty) {
+        if (parameterCount == parameterValues.length) {
+            parameterValues = Arrays.copyOf(parameterValues, 2 * parameterCount);
+            parameterUncertainties = Arrays.copyOf(parameterUncertainties, 2 * parameterCount);
+        }
+        parameterValues[parameterCount] = value;
+        parameterUncertainties[parameterCount] = uncertainty;
+        return parameterCount++;
+    }
+
+    /**
+     * Adds the contribution of a parameter to the entry (row, column) of the technology matrix R:
+     * the parameter times the factor, inverted if needed.
+     *
+     * @param row the destination process
+     * @param column the source process
+     * @param parameter the index of the parameter
+     * @param factor the conversion factor applied to the parameter
+     * @param inverted true if the contribution is the inverse of the product
+     */
+    public void addContribution(int row, int column, int parameter, double factor, boolean inverted) {
+        contributionsPattern.add(row, column, 1.0);
+        contributions.add(new int[] {row, column, parameter, inverted ? 1 : 0});
+        contributionFactors.add(factor);
+    }
+
+    /**
+     * Factorizes the system with the nominal values, this factorization being reused by all the samples.
+     *
+     * @throws SingularMatrixException if the nominal system is singular
+     */
+    public void prepare() throws SingularMatrixException {
+        systemPattern = contributionsPattern.build().minusFromIdentity();
+        int count = contributions.size();
+        contributionPositions = new int[count];
+        contributionParameters = new int[count];
+        contributionScales = new double[count];
+        contributionInverted = new boolean[count];
+        for (int c = 0; c < count; c++) {
+            int[] contribution = contributions.get(c);
+            contributionPositions[c] = position(contribution[0], contribution[1]);
+            contributionParameters[c] = contribution[2];
+            contributionScales[c] = contributionFactors.get(c);
+            contributionInverted[c] = 1 == contribution[3];
+        }
+        diagonalPositions = new int[n];
+        for (int i = 0; i < n; i++) {
+            diagonalPositions[i] = position(i, i);
+        }
+        symbolicFactorization = SparseLU.factorize(system(parameterValues));
+    }
+
+    protected int position(int row, int column) {
+        int[] pointers = systemPattern.getColumnPointers();
+        int[] rows = systemPattern.getRowIndices();
+        int start = pointers[column];
+        int end = pointers[column + 1];
+        // the diagonal entry may be appended after the other rows of the column
+        for (int p = start; p < end; p++) {
+            if (rows[p] == row) {
+                return p;
+            }
+        }
+        throw new IllegalStateException("The entry (" + row + ", " + column + ") is not in the pattern");
+    }
+
+    /**
+     * @param parameters the values of the parameters
+     * @return the matrix I - R with the given parameters
+     */
+    protected SparseColumnMatrix system(double[] parameters) {
+        double[] values = new double[systemPattern.cardinality()];
+        for (int i = 0; i < n; i++) {
+            values[diagonalPositions[i]] = 1.0;
+        }
+        for (int c = 0; c < contributionPositions.length; c++) {
+            double value = parameters[contributionParameters[c]] * contributionScales[c];
+            if (contributionInverted[c]) {
+                value = 1 / value;
+            }
+            values[contributionPositions[c]] -= value;
+        }
+        return new SparseColumnMatrix(n, n,
+                                      systemPattern.getColumnPointers(), systemPattern.getRowIndices(), values);
+    }
+
+    /**
+     * Runs the simulation.
+     *
+     * @param samples the number of samples
+     * @param seed the base seed of the random generators
+     * @param workers the number of workers
+     * @return the statistics of the impacts, indexed by process then by impact type
+     * @throws SingularMatrixException if the nominal system is singular
+     */
+    public RunningStatistics[][] run(int samples, long seed, int workers) throws SingularMatrixException {
+        if (null == symbolicFactorization) {
+            prepare();
+        }
+        workers = Math.max(1, Math.min(workers, samples));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Callable<RunningStatistics[][]>> tasks = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                tasks.add(new Worker(samples / workers + (w < samples % workers ? 1 : 0), seed + w));
+            }
+            RunningStatistics[][] statistics = null;
+            for (Future<RunningStatistics[][]> result : executor.invokeAll(tasks)) {
+                RunningStatistics[][] workerStatistics = result.get();
+                if (null == statistics) {
+                    statistics = workerStatistics;
+                }
+                else {
+                    for (int i = 0; i < n; i++) {
+                        for (int t = 0; t < statistics[i].length; t++) {
+                            statistics[i][t].merge(workerStatistics[i][t]);
+                        }
+                    }
+                }
+            }
+            return statistics;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The Monte Carlo simulation was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A Monte Carlo worker failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of samples skipped because their system was singular
+     */
+    public int getFailedSamples() {
+        return failedSamples.get();
+    }
+
+    /**
+     * @param relativeAccuracy the relative accuracy of the percentiles
+     */
+    public void setRelativeAccuracy(double relativeAccuracy) {
+        this.relativeAccuracy = relativeAccuracy;
+    }
+
+    /**
+     * Samples a value from a lognormal distribution with the given mean and relative standard deviation.
+     *
+     * @param value the mean
+     * @param uncertainty the relative standard deviation in percent
+     * @param random the random generator
+     * @return the sampled value
+     */
+    protected static double sample(double value, double uncertainty, Random random) {
+        if (uncertainty <= 0.0 || 0.0 == value) {
+            return value;
+        }
+        double relative = uncertainty / 100.0;
+        double variance = Math.log(1.0 + relative * relative);
+        return value * Math.exp(Math.sqrt(variance) * random.nextGaussian() - variance / 2.0);
+    }
+
+    protected class Worker implements Callable<RunningStatistics[][]> {
+        protected int samples;
+        protected long seed;
+
+        public Worker(int samples, long seed) {
+            this.samples = samples;
+            this.seed = seed;
+        }
+
+        @Override
+        public RunningStatistics[][] call() {
+            int impactTypes = flowToImpactsMatrix.rows();
+            RunningStatistics[][] statistics = new RunningStatistics[n][impactTypes];
+            for (int i = 0; i < n; i++) {
+                for (int t = 0; t < impactTypes; t++) {
+                    statistics[i][t] = new RunningStatistics(relativeAccuracy);
+                }
+            }
+
+            Random random = new Random(seed);
+            double[] parameters = new double[parameterCount];
+            double[][] rhs = new double[impactTypes][n];
+            double[] solution = new double[n];
+            int[] cPointers = ecologicalMatrix.getColumnPointers();
+            int[] cRows = ecologicalMatrix.getRowIndices();
+            double[] cValues = ecologicalMatrix.getValues();
+            int[] wPointers = flowToImpactsMatrix.getColumnPointers();
+            int[] wRows = flowToImpactsMatrix.getRowIndices();
+            double[] wValues = flowToImpactsMatrix.getValues();
+
+            for (int s = 0; s < samples; s++) {
+                for (int p = 0; p < parameterCount; p++) {
+                    parameters[p] = sample(parameterValues[p], parameterUncertainties[p], random);
+                }
+                for (double[] column : rhs) {
+                    Arrays.fill(column, 0.0);
+                }
+                // C W^T with the sampled elementary flows
+                for (int f = 0; f < ecologicalMatrix.columns(); f++) {
+                    for (int p = cPointers[f]; p < cPointers[f + 1]; p++) {
+                        double flow = sample(cValues[p], ecologicalUncertainties[p], random);
+                        for (int q = wPointers[f]; q < wPointers[f + 1]; q++) {
+                            rhs[wRows[q]][cRows[p]] += flow * wValues[q];
+                        }
+                    }
+                }
+
+                SparseLU lu;
+                try {
+                    lu = symbolicFactorization.refactorize(system(parameters));
+                } catch (SingularMatrixException e) {
+                    failedSamples.incrementAndGet();
+                    continue;
+                }
+                for (int t = 0; t < impactTypes; t++) {
+                    lu.solve(rhs[t], solution);
+                    for (int i = 0; i < n; i++) {
+                        statistics[i][t].add(solution[i] * scales[i]);
+                    }
+                }
+            }
+            return statistics;
+        }
+    }
+}
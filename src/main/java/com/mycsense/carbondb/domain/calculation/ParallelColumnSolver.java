@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Solves the technology system for many right-hand sides at once, the columns being split in blocks
+ * solved concurrently by the workers of a fork-join pool.
+ *
+ * The solver is shared by all the workers, it must be thread safe:
+ * every solver of this package only reads its factorization or operator while solving.
+ */
+public class ParallelColumnSolver {
+    protected LinearSolver solver;
+    protected ForkJoinPool pool;
+
+    /**
+     * @param solver the solver of the technology system
+     * @param pool the workers
+     */
+    public ParallelColumnSolver(LinearSolver solver, ForkJoinPool pool) {
+        this.solver = solver;
+        this.pool = pool;
+    }
+
+    /**
+     * @param rhs a matrix whose columns are the right-hand sides
+     * @return a matrix whose columns are the solutions, laid out as the right-hand sides
+     */
+    public SparseColumnMatrix solve(SparseColumnMatrix rhs) {
+        int columns = rhs.columns();
+        int[][] solutionRows = new int[columns][];
+        double[][] solutionValues = new double[columns][];
+        int blockSize = Math.max(1, columns / (4 * pool.getParallelism()));
+        pool.invoke(new ColumnsTask(rhs, solutionRows, solutionValues, 0, columns, blockSize));
+
+        int[] columnPointers = new int[columns + 1];
+        for (int j = 0; j < columns; j++) {
+            columnPointers[j + 1] = columnPointers[j] + solutionRows[j].length;
+        }
+        int[] rowIndices = new int[columnPointers[columns]];
+        double[] values = new double[columnPointers[columns]];
+        for (int j = 0; j < columns; j++) {
+            System.arraycopy(solutionRows[j], 0, rowIndices, columnPointers[j], solutionRows[j].length);
+            System.arraycopy(solutionValues[j], 0, values, columnPointers[j], solutionValues[j].length);
+        }
+        return new SparseColumnMatrix(rhs.rows(), columns, columnPointers, rowIndices, values);
+    }
+
+    protected class ColumnsTask extends RecursiveAction {
+        protected SparseColumnMatrix rhs;
+        protected int[][] solutionRows;
+        protected double[][] solutionValues;
+        protected int from;
+        protected int to;
+        protected int blockSize;
+
+        public ColumnsTask(SparseColumnMatrix rhs, int[][] solutionRows, double[][] solutionValues,
+                           int from, int to, int blockSize) {
+            this.rhs = rhs;
+            this.solutionRows = solutionRows;
+            this.solutionValues = solutionValues;
+            this.from = from;
+            this.to = to;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > blockSize) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ColumnsTask(rhs, solutionRows, solutionValues, from, middle, blockSize),
+                          new ColumnsTask(rhs, solutionRows, solutionValues, middle, to, blockSize));
+                return;
+            }
+            int n = rhs.rows();
+            int[] pointers = rhs.getColumnPointers();
+            int[] rows = rhs.getRowIndices();
+            double[] values = rhs.getValues();
+            double[] b = new double[n];
+            double[] x = new double[n];
+            int[] nonZeroRows = new int[n];
+            for (int j = from; j < to; j++) {
+                Arrays.fill(b, 0.0);
+                for (int p = pointers[j]; p < pointers[j + 1]; p++) {
+                    b[rows[p]] = values[p];
+                }
+                solver.solve(b, x);
+                int nz = 0;
+                for (int i = 0; i < n; i++) {
+                    if (0.0 != x[i]) {
+                        nonZeroRows[nz++] = i;
+                    }
+                }
+                solutionRows[j] = Arrays.copyOf(nonZeroRows, nz);
+                solutionValues[j] = new double[nz];
+                for (int p = 0; p < nz; p++) {
+                    solutionValues[j][p] = x[nonZeroRows[p]];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import com.mycsense.carbondb.domain.DerivedRelation;
+import com.mycsense.carbondb.domain.IndexRegistry;
+import com.mycsense.carbondb.domain.Process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ *     The graph of the processes, whose edges are the derived relations from a source process
+ *     to its destination process. The strongly connected components of this graph are computed
+ *     with the algorithm of Tarjan and sorted in topological order: every component comes after
+ *     the components of its upstream processes.
+ * </p>
+ * <p>
+ *     Most components are a single process without loop, the others contain the cycles of the ontology.
+ * </p>
+ */
+public class ProcessGraph {
+    protected List<Process> processes;
+    protected int[][] successors;
+    protected boolean[] selfLoops;
+
+    protected ArrayList<int[]> components;
+    protected int[] componentOf;
+
+    /**
+     * @param processes the processes, their index in the registry is their index in the graph
+     */
+    public ProcessGraph(IndexRegistry<Process> processes) {
+        this.processes = processes.getElements();
+        createEdges(processes);
+        computeComponents();
+    }
+
+    /**
+     * Creates the graph of a technology matrix: its edges are the non zero values of the matrix,
+     * so that the graph matches the matrix even if the ontology changed after its creation.
+     *
+     * @param processes the processes of the rows and columns of the matrix
+     * @param dependencyMatrix the technology matrix R, whose value at (i, j) is the relation from j to i
+     */
+    public ProcessGraph(List<Process> processes, SparseColumnMatrix dependencyMatrix) {
+        this.processes = processes;
+        createEdges(dependencyMatrix);
+        computeComponents();
+    }
+
+    protected void createEdges(SparseColumnMatrix dependencyMatrix) {
+        int n = processes.size();
+        int[] pointers = dependencyMatrix.getColumnPointers();
+        int[] rows = dependencyMatrix.getRowIndices();
+        successors = new int[n][];
+        selfLoops = new boolean[n];
+        for (int j = 0; j < n; j++) {
+            successors[j] = Arrays.copyOfRange(rows, pointers[j], pointers[j + 1]);
+            for (int i : successors[j]) {
+                if (i == j) {
+                    selfLoops[j] = true;
+                }
+            }
+        }
+    }
+
+    protected void createEdges(IndexRegistry<Process> processes) {
+        int n = processes.size();
+        successors = new int[n][];
+        selfLoops = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            ArrayList<Integer> destinations = new ArrayList<>();
+            for (DerivedRelation relation : processes.get(i).getDownstreamDerivedRelations()) {
+                int destination = processes.indexOf(relation.getDestination());
+                if (-1 != destination) {
+                    destinations.add(destination);
+                    if (destination == i) {
+                        selfLoops[i] = true;
+                    }
+                }
+            }
+            successors[i] = new int[destinations.size()];
+            for (int k = 0; k < destinations.size(); k++) {
+                successors[i][k] = destinations.get(k);
+            }
+        }
+    }
+
+    /**
+     * Non recursive version of the algorithm of Tarjan.
+     */
+    protected void computeComponents() {
+        int n = processes.size();
+        int[] visitIndex = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callStack = new int[n];
+        int[] edgePositions = new int[n];
+        for (int i = 0; i < n; i++) {
+            visitIndex[i] = -1;
+        }
+
+        components = new ArrayList<>();
+        componentOf = new int[n];
+        int counter = 0, stackTop = 0;
+        for (int root = 0; root < n; root++) {
+            if (visitIndex[root] != -1) {
+                continue;
+            }
+            int callTop = 0;
+            callStack[0] = root;
+            edgePositions[0] = 0;
+            visitIndex[root] = lowLink[root] = counter++;
+            stack[stackTop++] = root;
+            onStack[root] = true;
+            while (callTop >= 0) {
+                int node = callStack[callTop];
+                if (edgePositions[callTop] < successors[node].length) {
+                    int next = successors[node][edgePositions[callTop]++];
+                    if (visitIndex[next] == -1) {
+                        visitIndex[next] = lowLink[next] = counter++;
+                        stack[stackTop++] = next;
+                        onStack[next] = true;
+                        callStack[++callTop] = next;
+                        edgePositions[callTop] = 0;
+                    }
+                    else if (onStack[next]) {
+                        lowLink[node] = Math.min(lowLink[node], visitIndex[next]);
+                    }
+                }
+                else {
+                    if (lowLink[node] == visitIndex[node]) {
+                        int size = 0;
+                        while (stack[stackTop - 1 - size] != node) {
+                            size++;
+                        }
+                        size++;
+                        int[] component = new int[size];
+                        for (int k = 0; k < size; k++) {
+                            int member = stack[--stackTop];
+                            onStack[member] = false;
+                            component[k] = member;
+                        }
+                        components.add(component);
+                    }
+                    callTop--;
+                    if (callTop >= 0) {
+                        int parent = callStack[callTop];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                    }
+                }
+            }
+        }
+        // Tarjan finds the downstream components first
+        Collections.reverse(components);
+        for (int c = 0; c < components.size(); c++) {
+            for (int member : components.get(c)) {
+                componentOf[member] = c;
+            }
+        }
+    }
+
+    /**
+     * @return the strongly connected components, as arrays of process indexes, in topological order
+     */
+    public ArrayList<int[]> getComponents() {
+        return components;
+    }
+
+    /**
+     * @param process the index of a process
+     * @return the position of the component of the process in the list of components
+     */
+    public int getComponentOf(int process) {
+        return componentOf[process];
+    }
+
+    /**
+     * @param component the position of a component in the list of components
+     * @return true if the component contains a cycle
+     */
+    public boolean isCyclic(int component) {
+        int[] members = components.get(component);
+        return members.length > 1 || selfLoops[members[0]];
+    }
+
+    /**
+     * @return the processes of every component containing a cycle
+     */
+    public ArrayList<ArrayList<Process>> getCycles() {
+        ArrayList<ArrayList<Process>> cycles = new ArrayList<>();
+        for (int c = 0; c < components.size(); c++) {
+            if (isCyclic(c)) {
+                ArrayList<Process> cycle = new ArrayList<>();
+                for (int member : components.get(c)) {
+                    cycle.add(processes.get(member));
+                }
+                cycles.add(cycle);
+            }
+        }
+        return cycles;
+    }
+
+    public List<Process> getProcesses() {
+        return processes;
+    }
+}
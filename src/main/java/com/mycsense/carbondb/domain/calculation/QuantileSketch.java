@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+/**
+ * <p>
+ *     Mergeable quantile sketch with a relative accuracy guarantee:
+ *     the values are counted in buckets whose bounds grow geometrically, so that every quantile is
+ *     estimated within the relative accuracy of the real value, whatever the distribution.
+ * </p>
+ * <p>
+ *     The number of buckets of each sign is bounded, the lowest buckets being collapsed when needed,
+ *     which only degrades the accuracy of the quantiles of the smallest absolute values.
+ *     Two sketches with the same accuracy can be merged, e.g. after a parallel sampling.
+ * </p>
+ */
+public class QuantileSketch {
+    protected static final int MAX_BUCKETS = 2048;
+
+    protected double relativeAccuracy;
+    protected double gamma;
+    protected double logGamma;
+    protected BucketStore positive = new BucketStore();
+    protected BucketStore negative = new BucketStore();
+    protected long zeroCount = 0;
+    protected long count = 0;
+
+    /**
+     * @param relativeAccuracy the relative accuracy of the quantiles, e.g. 0.01 for 1%
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0.0 || relativeAccuracy >= 1.0) {
+            throw new IllegalArgumentException("The relative accuracy must be between 0 and 1, got " + relativeAccuracy);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        gamma = (1.0 + relativeAccuracy) / (1.0 - relativeAccuracy);
+        logGamma = Math.log(gamma);
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (value > Double.MIN_NORMAL) {
+            positive.add(bucketIndex(value), 1);
+        }
+        else if (value < -Double.MIN_NORMAL) {
+            negative.add(bucketIndex(-value), 1);
+        }
+        else {
+            zeroCount++;
+        }
+        count++;
+    }
+
+    /**
+     * Adds the values counted by another sketch to this one.
+     *
+     * @param other a sketch with the same relative accuracy
+     */
+    public void merge(QuantileSketch other) {
+        if (other.gamma != gamma) {
+            throw new IllegalArgumentException("Cannot merge sketches with different accuracies");
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    /**
+     * @param quantile the quantile, between 0 and 1
+     * @return the estimated value at the quantile, NaN if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException("The quantile must be between 0 and 1, got " + quantile);
+        }
+        if (0 == count) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (count - 1));
+        long seen = 0;
+        for (int b = negative.counts.length - 1; b >= 0; b--) {
+            seen += negative.counts[b];
+            if (seen > rank) {
+                return -bucketValue(negative.offset + b);
+            }
+        }
+        seen += zeroCount;
+        if (seen > rank) {
+            return 0.0;
+        }
+        for (int b = 0; b < positive.counts.length; b++) {
+            seen += positive.counts[b];
+            if (seen > rank) {
+                return bucketValue(positive.offset + b);
+            }
+        }
+        return bucketValue(positive.offset + positive.counts.length - 1);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    protected int bucketIndex(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    protected double bucketValue(int index) {
+        return 2.0 * Math.pow(gamma, index) / (gamma + 1.0);
+    }
+
+    /**
+     * Contiguous bucket counts, counts[b] being the count of the bucket offset + b.
+     */
+    protected static class BucketStore {
+        protected long[] counts = new long[0];
+        protected int offset = 0;
+
+        protected void add(int index, long bucketCount) {
+            if (0 == counts.length) {
+                counts = new long[1];
+                offset = index;
+            }
+            int top = offset + counts.length - 1;
+            if (index < offset) {
+                if (top - index + 1 > MAX_BUCKETS) {
+                    index = Math.min(offset, top - MAX_BUCKETS + 1);
+                }
+                if (index < offset) {
+                    long[] grown = new long[top - index + 1];
+                    System.arraycopy(counts, 0, grown, offset - index, counts.length);
+                    counts = grown;
+                    offset = index;
+                }
+            }
+            else if (index > top) {
+                int low = Math.max(offset, index - MAX_BUCKETS + 1);
+                long[] grown = new long[index - low + 1];
+                long collapsed = 0;
+                for (int b = 0; b < counts.length; b++) {
+                    if (offset + b < low) {
+                        collapsed += counts[b];
+                    }
+                    else {
+                        grown[offset + b - low] = counts[b];
+                    }
+                }
+                grown[0] += collapsed;
+                counts = grown;
+                offset = low;
+            }
+            counts[index - offset] += bucketCount;
+        }
+
+        protected void merge(BucketStore other) {
+            for (int b = 0; b < other.counts.length; b++) {
+                if (0 != other.counts[b]) {
+                    add(other.offset + b, other.counts[b]);
+                }
+            }
+        }
+    }
+}
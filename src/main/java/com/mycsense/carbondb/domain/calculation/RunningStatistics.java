@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+/**
+ * Running statistics of a stream of values: the mean and the variance are updated with the algorithm
+ * of Welford, the quantiles are estimated with a {@link QuantileSketch}.
+ * Two statistics can be merged, which gives the same result as if all the values had been added to one of them.
+ */
+public class RunningStatistics {
+    protected long count = 0;
+    protected double mean = 0.0;
+    protected double m2 = 0.0;
+    protected QuantileSketch sketch;
+
+    /**
+     * @param relativeAccuracy the relative accuracy of the quantiles
+     */
+    public RunningStatistics(double relativeAccuracy) {
+        sketch = new QuantileSketch(relativeAccuracy);
+    }
+
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        sketch.add(value);
+    }
+
+    /**
+     * Adds the values of other statistics to these ones, using the pairwise formula of Chan et al.
+     *
+     * @param other the statistics to merge
+     */
+    public void merge(RunningStatistics other) {
+        if (0 == other.count) {
+            return;
+        }
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+        sketch.merge(other.sketch);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the sample variance, zero with less than two values
+     */
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : 0.0;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return the standard deviation relative to the mean, in percent, zero if the mean is zero
+     */
+    public double getRelativeStandardDeviation() {
+        return 0.0 == mean ? 0.0 : 100.0 * getStandardDeviation() / Math.abs(mean);
+    }
+
+    /**
+     * @param quantile the quantile, between 0 and 1
+     * @return the estimated value at the quantile
+     */
+    public double getQuantile(double quantile) {
+        return sketch.getQuantile(quantile);
+    }
+}
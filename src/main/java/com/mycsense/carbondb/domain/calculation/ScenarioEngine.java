@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import com.mycsense.carbondb.SingularMatrixException;
+
+/**
+ * <p>
+ *     Calculates the impacts of the processes for variants of the technology matrix R,
+ *     each variant being given by its difference with R.
+ * </p>
+ * <p>
+ *     The matrix <code>I - R</code> is factorized once: each variant reuses the ordering and the structure
+ *     of this factorization and only computes the values of its factors, unless the variant adds entries
+ *     to the pattern of R or needs another pivoting, in which case it is factorized from scratch.
+ *     The impacts are obtained by solving <code>(I - R) Y = C W<sup>T</sup></code>, one solve per impact type.
+ * </p>
+ * <p>
+ *     The engine is only read by the evaluations, which can run concurrently.
+ * </p>
+ */
+public class ScenarioEngine {
+    protected SparseColumnMatrix dependencyMatrix;
+    protected double[][] directImpacts;
+    protected SparseLU symbolicFactorization;
+
+    /**
+     * @param dependencyMatrix the technology matrix R
+     * @param directImpacts the impacts of the elementary flows of the processes only: <code>C W<sup>T</sup></code>
+     * @throws SingularMatrixException if <code>I - R</code> is singular
+     */
+    public ScenarioEngine(SparseColumnMatrix dependencyMatrix, SparseColumnMatrix directImpacts)
+            throws SingularMatrixException {
+        this.dependencyMatrix = dependencyMatrix;
+        this.directImpacts = new double[directImpacts.columns()][directImpacts.rows()];
+        int[] pointers = directImpacts.getColumnPointers();
+        for (int t = 0; t < directImpacts.columns(); t++) {
+            for (int p = pointers[t]; p < pointers[t + 1]; p++) {
+                this.directImpacts[t][directImpacts.getRowIndices()[p]] = directImpacts.getValues()[p];
+            }
+        }
+        symbolicFactorization = SparseLU.factorize(dependencyMatrix.minusFromIdentity());
+    }
+
+    /**
+     * @param delta the difference between the technology matrix of the variant and R
+     * @return the impacts of the variant, indexed by impact type then by process
+     * @throws SingularMatrixException if the system of the variant is singular
+     */
+    public double[][] evaluate(SparseColumnMatrix delta) throws SingularMatrixException {
+        LinearSolver solver = factorize(delta);
+        double[][] impacts = new double[directImpacts.length][];
+        for (int t = 0; t < directImpacts.length; t++) {
+            impacts[t] = new double[dependencyMatrix.rows()];
+            solver.solve(directImpacts[t], impacts[t]);
+        }
+        return impacts;
+    }
+
+    protected SparseLU factorize(SparseColumnMatrix delta) throws SingularMatrixException {
+        if (0 == delta.cardinality()) {
+            return symbolicFactorization;
+        }
+        SparseColumnMatrix system = dependencyMatrix.add(delta).minusFromIdentity();
+        try {
+            return symbolicFactorization.refactorize(system);
+        } catch (IllegalArgumentException | SingularMatrixException e) {
+            // new entries, or a null pivot with the nominal ordering
+            return SparseLU.factorize(system);
+        }
+    }
+}
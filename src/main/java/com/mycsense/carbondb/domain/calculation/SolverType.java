@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+/**
+ * The methods available to calculate the cumulative elementary flows.
+ * <ul>
+ *     <li>SERIES: truncated power series <code>I + R + R<sup>2</sup> + ...</code></li>
+ *     <li>DIRECT: sparse LU factorization of <code>I - R</code></li>
+ *     <li>JACOBI: vector iteration <code>x<sub>k+1</sub> = c + R x<sub>k</sub></code></li>
+ *     <li>GAUSS_SEIDEL: vector iteration using the updated values as soon as they are available</li>
+ *     <li>BLOCK_TRIANGULAR: substitution in the topological order of the process graph,
+ *     only the cycles are factorized</li>
+ * </ul>
+ */
+public enum SolverType {
+    SERIES, DIRECT, JACOBI, GAUSS_SEIDEL, BLOCK_TRIANGULAR
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import org.la4j.matrix.Matrix;
+import org.la4j.matrix.functor.MatrixProcedure;
+import org.la4j.matrix.sparse.CCSMatrix;
+
+/**
+ * Read-only compressed sparse column storage giving the solvers a direct access
+ * to the primitive arrays, which la4j keeps private.
+ */
+public class SparseColumnMatrix {
+    protected int rows;
+    protected int columns;
+    protected int[] columnPointers;
+    protected int[] rowIndices;
+    protected double[] values;
+
+    public SparseColumnMatrix(int rows, int columns, int[] columnPointers, int[] rowIndices, double[] values) {
+        this.rows = rows;
+        this.columns = columns;
+        this.columnPointers = columnPointers;
+        this.rowIndices = rowIndices;
+        this.values = values;
+    }
+
+    /**
+     * Copies the non zero entries of a la4j matrix.
+     *
+     * @param matrix a matrix, preferably a CCSMatrix
+     * @return the compressed column copy of the matrix
+     */
+    public static SparseColumnMatrix fromMatrix(Matrix matrix) {
+        final int[] counts = new int[matrix.columns() + 1];
+        matrix.eachNonZero(new MatrixProcedure() {
+            @Override
+            public void apply(int i, int j, double value) {
+                counts[j + 1]++;
+            }
+        });
+        for (int j = 0; j < matrix.columns(); j++) {
+            counts[j + 1] += counts[j];
+        }
+        final int[] columnPointers = counts.clone();
+        final int[] next = counts.clone();
+        final int[] rowIndices = new int[counts[matrix.columns()]];
+        final double[] values = new double[counts[matrix.columns()]];
+        matrix.eachNonZero(new MatrixProcedure() {
+            @Override
+            public void apply(int i, int j, double value) {
+                rowIndices[next[j]] = i;
+                values[next[j]] = value;
+                next[j]++;
+            }
+        });
+        return new SparseColumnMatrix(matrix.rows(), matrix.columns(), columnPointers, rowIndices, values);
+    }
+
+    /**
+     * Copies this matrix into a la4j matrix without going through the element-wise insertions.
+     *
+     * @return a new CCSMatrix
+     */
+    public CCSMatrix toCCSMatrix() {
+        return new CCSMatrix(rows, columns, cardinality(),
+                             values.clone(), rowIndices.clone(), columnPointers.clone());
+    }
+
+    /**
+     * Returns <code>I - this</code>, the matrix must be square.
+     *
+     * @return a new matrix
+     */
+    public SparseColumnMatrix minusFromIdentity() {
+        int[] newPointers = new int[columns + 1];
+        int[] newRows = new int[values.length + columns];
+        double[] newValues = new double[values.length + columns];
+        int nz = 0;
+        for (int j = 0; j < columns; j++) {
+            newPointers[j] = nz;
+            boolean hasDiagonal = false;
+            for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+                newRows[nz] = rowIndices[p];
+                newValues[nz] = -values[p];
+                if (rowIndices[p] == j) {
+                    newValues[nz] += 1.0;
+                    hasDiagonal = true;
+                }
+                nz++;
+            }
+            if (!hasDiagonal) {
+                newRows[nz] = j;
+                newValues[nz] = 1.0;
+                nz++;
+            }
+        }
+        newPointers[columns] = nz;
+        return new SparseColumnMatrix(rows, columns, newPointers, newRows, newValues);
+    }
+
+    /**
+     * @param other a matrix of the same size
+     * @return a new matrix, sum of this one and the other one, without the entries summing up to zero
+     */
+    public SparseColumnMatrix add(SparseColumnMatrix other) {
+        TripletMatrixBuilder sum = new TripletMatrixBuilder(rows, columns, cardinality() + other.cardinality());
+        for (SparseColumnMatrix term : new SparseColumnMatrix[] {this, other}) {
+            for (int j = 0; j < columns; j++) {
+                for (int p = term.columnPointers[j]; p < term.columnPointers[j + 1]; p++) {
+                    sum.add(term.rowIndices[p], j, term.values[p]);
+                }
+            }
+        }
+        return sum.build();
+    }
+
+    /**
+     * @param factor the scaling factor
+     * @return a new matrix with the same structure, whose values are multiplied by the factor
+     */
+    public SparseColumnMatrix scale(double factor) {
+        double[] newValues = new double[values.length];
+        for (int p = 0; p < values.length; p++) {
+            newValues[p] = values[p] * factor;
+        }
+        return new SparseColumnMatrix(rows, columns, columnPointers, rowIndices, newValues);
+    }
+
+    /**
+     * @return a new matrix, transpose of this one, i.e. the compressed row storage of this one
+     */
+    public SparseColumnMatrix transpose() {
+        int[] newPointers = new int[rows + 1];
+        int nz = cardinality();
+        for (int p = 0; p < nz; p++) {
+            newPointers[rowIndices[p] + 1]++;
+        }
+        for (int i = 0; i < rows; i++) {
+            newPointers[i + 1] += newPointers[i];
+        }
+        int[] next = newPointers.clone();
+        int[] newRows = new int[nz];
+        double[] newValues = new double[nz];
+        for (int j = 0; j < columns; j++) {
+            for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+                int q = next[rowIndices[p]]++;
+                newRows[q] = j;
+                newValues[q] = values[p];
+            }
+        }
+        return new SparseColumnMatrix(columns, rows, newPointers, newRows, newValues);
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    public int cardinality() {
+        return columnPointers[columns];
+    }
+
+    public int[] getColumnPointers() {
+        return columnPointers;
+    }
+
+    public int[] getRowIndices() {
+        return rowIndices;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+}
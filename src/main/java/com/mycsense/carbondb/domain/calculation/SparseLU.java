@@ -0,0 +1,383 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import com.mycsense.carbondb.SingularMatrixException;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Sparse LU factorization <code>P A P<sup>T</sup> = L U</code> of a square matrix,
+ *     computed column by column with the left-looking algorithm of Gilbert and Peierls.
+ * </p>
+ * <p>
+ *     The permutation <code>P</code> is a symmetric fill-reducing ordering, no pivoting is done:
+ *     the technology matrix <code>I - R</code> of a converging ontology has a dominant unit diagonal.
+ *     A null pivot is reported with a SingularMatrixException.
+ * </p>
+ * <p>
+ *     The structure of the factors is kept even where the values cancel out, so that a matrix with the same
+ *     non zero pattern but other values, e.g. a Monte Carlo sample, can be factorized again with
+ *     {@link #refactorize(SparseColumnMatrix)}, skipping the ordering and the symbolic steps.
+ * </p>
+ * <p>
+ *     Once computed the factorization is read-only and can be shared between threads.
+ * </p>
+ */
+public class SparseLU implements LinearSolver {
+    protected static final double PIVOT_TOLERANCE = 1e-12;
+
+    protected int n;
+    protected int[] permutation;
+    protected int[] inversePermutation;
+
+    // strictly lower part of L, its diagonal is implicitly one
+    protected int[] lColumnPointers;
+    protected int[] lRowIndices;
+    protected double[] lValues;
+
+    // strictly upper part of U, its diagonal is stored in uDiagonal
+    protected int[] uColumnPointers;
+    protected int[] uRowIndices;
+    protected double[] uValues;
+    protected double[] uDiagonal;
+
+    protected SparseLU(int[] permutation) {
+        n = permutation.length;
+        this.permutation = permutation;
+        inversePermutation = new int[n];
+        for (int k = 0; k < n; k++) {
+            inversePermutation[permutation[k]] = k;
+        }
+    }
+
+    protected SparseLU(int[] permutation, int[] inversePermutation) {
+        n = permutation.length;
+        this.permutation = permutation;
+        this.inversePermutation = inversePermutation;
+    }
+
+    /**
+     * Factorizes the matrix using a minimum degree ordering.
+     *
+     * @param matrix a square matrix
+     * @return the factorization
+     * @throws SingularMatrixException if a null pivot is encountered
+     */
+    public static SparseLU factorize(SparseColumnMatrix matrix) throws SingularMatrixException {
+        return factorize(matrix, MinimumDegreeOrdering.order(matrix));
+    }
+
+    /**
+     * Factorizes the matrix using the given symmetric ordering.
+     *
+     * @param matrix a square matrix
+     * @param permutation permutation[k] is the row and column of the matrix placed at position k
+     * @return the factorization
+     * @throws SingularMatrixException if a null pivot is encountered
+     */
+    public static SparseLU factorize(SparseColumnMatrix matrix, int[] permutation) throws SingularMatrixException {
+        SparseLU lu = new SparseLU(permutation);
+        lu.computeFactors(matrix);
+        return lu;
+    }
+
+    protected void computeFactors(SparseColumnMatrix matrix) throws SingularMatrixException {
+        int[] aPointers = matrix.getColumnPointers();
+        int[] aRows = matrix.getRowIndices();
+        double[] aValues = matrix.getValues();
+
+        int capacity = Math.max(matrix.cardinality(), n);
+        lColumnPointers = new int[n + 1];
+        lRowIndices = new int[capacity];
+        lValues = new double[capacity];
+        uColumnPointers = new int[n + 1];
+        uRowIndices = new int[capacity];
+        uValues = new double[capacity];
+        uDiagonal = new double[n];
+
+        double[] x = new double[n];
+        int[] reach = new int[n];
+        int[] stack = new int[n];
+        int[] positions = new int[n];
+        int[] marks = new int[n];
+        Arrays.fill(marks, -1);
+
+        int lnz = 0, unz = 0;
+        for (int k = 0; k < n; k++) {
+            lColumnPointers[k] = lnz;
+            uColumnPointers[k] = unz;
+            int column = permutation[k];
+
+            // symbolic step: rows of the column k of L U reachable through the columns of L already computed
+            int top = n;
+            for (int p = aPointers[column]; p < aPointers[column + 1]; p++) {
+                int i = inversePermutation[aRows[p]];
+                if (marks[i] != k) {
+                    top = depthFirstSearch(i, k, top, reach, stack, positions, marks);
+                }
+            }
+
+            // numeric step: sparse triangular solve L x = A(:, k)
+            for (int t = top; t < n; t++) {
+                x[reach[t]] = 0.0;
+            }
+            for (int p = aPointers[column]; p < aPointers[column + 1]; p++) {
+                x[inversePermutation[aRows[p]]] += aValues[p];
+            }
+            for (int t = top; t < n; t++) {
+                int j = reach[t];
+                if (j < k) {
+                    double xj = x[j];
+                    for (int p = lColumnPointers[j]; p < lColumnPointers[j + 1]; p++) {
+                        x[lRowIndices[p]] -= lValues[p] * xj;
+                    }
+                }
+            }
+
+            double pivot = marks[k] == k ? x[k] : 0.0;
+            if (Double.isNaN(pivot) || Math.abs(pivot) < PIVOT_TOLERANCE) {
+                throw new SingularMatrixException("Null pivot found at the step " + k
+                        + " of the LU factorization (row " + column + ")");
+            }
+            uDiagonal[k] = pivot;
+
+            if (lnz + n - top > lValues.length) {
+                lRowIndices = Arrays.copyOf(lRowIndices, 2 * lValues.length + n);
+                lValues = Arrays.copyOf(lValues, 2 * lValues.length + n);
+            }
+            if (unz + n - top > uValues.length) {
+                uRowIndices = Arrays.copyOf(uRowIndices, 2 * uValues.length + n);
+                uValues = Arrays.copyOf(uValues, 2 * uValues.length + n);
+            }
+            for (int t = top; t < n; t++) {
+                int i = reach[t];
+                if (i < k) {
+                    uRowIndices[unz] = i;
+                    uValues[unz] = x[i];
+                    unz++;
+                }
+                else if (i > k) {
+                    lRowIndices[lnz] = i;
+                    lValues[lnz] = x[i] / pivot;
+                    lnz++;
+                }
+            }
+        }
+        lColumnPointers[n] = lnz;
+        uColumnPointers[n] = unz;
+        sortUpperRows();
+    }
+
+    /**
+     * Sorts the rows of each column of U, increasing rows being a topological order
+     * for the numeric refactorization.
+     */
+    protected void sortUpperRows() {
+        for (int k = 0; k < n; k++) {
+            int start = uColumnPointers[k];
+            int end = uColumnPointers[k + 1];
+            for (int p = start + 1; p < end; p++) {
+                int row = uRowIndices[p];
+                double value = uValues[p];
+                int q = p - 1;
+                while (q >= start && uRowIndices[q] > row) {
+                    uRowIndices[q + 1] = uRowIndices[q];
+                    uValues[q + 1] = uValues[q];
+                    q--;
+                }
+                uRowIndices[q + 1] = row;
+                uValues[q + 1] = value;
+            }
+        }
+    }
+
+    /**
+     * Factorizes a matrix having the same non zero pattern as the factorized one, or a part of it,
+     * reusing the ordering and the structure of the factors.
+     * The new factorization shares the structure arrays with this one, which is left unchanged.
+     *
+     * @param matrix a square matrix
+     * @return the factorization
+     * @throws SingularMatrixException if a null pivot is encountered
+     */
+    public SparseLU refactorize(SparseColumnMatrix matrix) throws SingularMatrixException {
+        SparseLU lu = new SparseLU(permutation, inversePermutation);
+        lu.lColumnPointers = lColumnPointers;
+        lu.lRowIndices = lRowIndices;
+        lu.uColumnPointers = uColumnPointers;
+        lu.uRowIndices = uRowIndices;
+        lu.computeValues(matrix);
+        return lu;
+    }
+
+    protected void computeValues(SparseColumnMatrix matrix) throws SingularMatrixException {
+        int[] aPointers = matrix.getColumnPointers();
+        int[] aRows = matrix.getRowIndices();
+        double[] aValues = matrix.getValues();
+        lValues = new double[lColumnPointers[n]];
+        uValues = new double[uColumnPointers[n]];
+        uDiagonal = new double[n];
+
+        double[] x = new double[n];
+        int[] marks = new int[n];
+        Arrays.fill(marks, -1);
+        for (int k = 0; k < n; k++) {
+            for (int p = uColumnPointers[k]; p < uColumnPointers[k + 1]; p++) {
+                x[uRowIndices[p]] = 0.0;
+                marks[uRowIndices[p]] = k;
+            }
+            for (int p = lColumnPointers[k]; p < lColumnPointers[k + 1]; p++) {
+                x[lRowIndices[p]] = 0.0;
+                marks[lRowIndices[p]] = k;
+            }
+            x[k] = 0.0;
+            marks[k] = k;
+
+            int column = permutation[k];
+            for (int p = aPointers[column]; p < aPointers[column + 1]; p++) {
+                int i = inversePermutation[aRows[p]];
+                if (marks[i] != k) {
+                    throw new IllegalArgumentException("The entry (" + aRows[p] + ", " + column
+                            + ") is outside of the factorized pattern");
+                }
+                x[i] += aValues[p];
+            }
+
+            for (int p = uColumnPointers[k]; p < uColumnPointers[k + 1]; p++) {
+                int j = uRowIndices[p];
+                double xj = x[j];
+                for (int q = lColumnPointers[j]; q < lColumnPointers[j + 1]; q++) {
+                    x[lRowIndices[q]] -= lValues[q] * xj;
+                }
+            }
+
+            double pivot = x[k];
+            if (Double.isNaN(pivot) || Math.abs(pivot) < PIVOT_TOLERANCE) {
+                throw new SingularMatrixException("Null pivot found at the step " + k
+                        + " of the LU factorization (row " + column + ")");
+            }
+            uDiagonal[k] = pivot;
+            for (int p = uColumnPointers[k]; p < uColumnPointers[k + 1]; p++) {
+                uValues[p] = x[uRowIndices[p]];
+            }
+            for (int p = lColumnPointers[k]; p < lColumnPointers[k + 1]; p++) {
+                lValues[p] = x[lRowIndices[p]] / pivot;
+            }
+        }
+    }
+
+    /**
+     * Non recursive depth first search in the graph of L, starting from the node j.
+     * The nodes are pushed in topological order at the top of the reach array.
+     */
+    protected int depthFirstSearch(int j, int k, int top, int[] reach, int[] stack, int[] positions, int[] marks) {
+        int head = 0;
+        stack[0] = j;
+        while (head >= 0) {
+            j = stack[head];
+            if (marks[j] != k) {
+                marks[j] = k;
+                positions[head] = j < k ? lColumnPointers[j] : 0;
+            }
+            int end = j < k ? lColumnPointers[j + 1] : 0;
+            boolean done = true;
+            for (int p = positions[head]; p < end; p++) {
+                int i = lRowIndices[p];
+                if (marks[i] != k) {
+                    positions[head] = p + 1;
+                    stack[++head] = i;
+                    done = false;
+                    break;
+                }
+            }
+            if (done) {
+                head--;
+                reach[--top] = j;
+            }
+        }
+        return top;
+    }
+
+    @Override
+    public void solve(double[] rhs, double[] solution) {
+        double[] y = new double[n];
+        for (int k = 0; k < n; k++) {
+            y[k] = rhs[permutation[k]];
+        }
+        for (int j = 0; j < n; j++) {
+            double yj = y[j];
+            if (yj != 0.0) {
+                for (int p = lColumnPointers[j]; p < lColumnPointers[j + 1]; p++) {
+                    y[lRowIndices[p]] -= lValues[p] * yj;
+                }
+            }
+        }
+        for (int j = n - 1; j >= 0; j--) {
+            y[j] /= uDiagonal[j];
+            double yj = y[j];
+            if (yj != 0.0) {
+                for (int p = uColumnPointers[j]; p < uColumnPointers[j + 1]; p++) {
+                    y[uRowIndices[p]] -= uValues[p] * yj;
+                }
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            solution[permutation[k]] = y[k];
+        }
+    }
+
+    @Override
+    public void solveTransposed(double[] rhs, double[] solution) {
+        // A = P^T L U P, so A^T y = b is U^T L^T P y = P b
+        double[] y = new double[n];
+        for (int k = 0; k < n; k++) {
+            y[k] = rhs[permutation[k]];
+        }
+        for (int j = 0; j < n; j++) {
+            double value = y[j];
+            for (int p = uColumnPointers[j]; p < uColumnPointers[j + 1]; p++) {
+                value -= uValues[p] * y[uRowIndices[p]];
+            }
+            y[j] = value / uDiagonal[j];
+        }
+        for (int j = n - 1; j >= 0; j--) {
+            double value = y[j];
+            for (int p = lColumnPointers[j]; p < lColumnPointers[j + 1]; p++) {
+                value -= lValues[p] * y[lRowIndices[p]];
+            }
+            y[j] = value;
+        }
+        for (int k = 0; k < n; k++) {
+            solution[permutation[k]] = y[k];
+        }
+    }
+
+    /**
+     * @return the number of non zero entries in L and U, diagonal included
+     */
+    public int cardinality() {
+        return lColumnPointers[n] + uColumnPointers[n] + n;
+    }
+}
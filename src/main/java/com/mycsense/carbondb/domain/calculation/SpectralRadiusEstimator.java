@@ -0,0 +1,262 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Estimates the spectral radius of the technology matrix R, component by component
+ *     of the process graph: the spectral radius of R is the largest one of its diagonal blocks.
+ *     The power series <code>R<sup>0</sup> + R<sup>1</sup> + ...</code> converges if and only if it is lower than 1,
+ *     and its terms decrease like <code>&rho;<sup>n</sup></code>.
+ * </p>
+ * <p>
+ *     The power iterations are run on <code>|B| + I</code>, where <code>B</code> is the block of a cyclic component:
+ *     <code>|B|</code> being non negative and irreducible, the shifted matrix is primitive
+ *     and the iterations converge even for periodic cycles. The Collatz-Wielandt bounds
+ *     <code>min<sub>i</sub> (Ax)<sub>i</sub> / x<sub>i</sub> &le; &rho;(A) &le; max<sub>i</sub> (Ax)<sub>i</sub> / x<sub>i</sub></code>
+ *     are tightened at each iteration, which stops when they are close enough. They bound the spectral radius
+ *     of <code>|B|</code>, which is the one of <code>B</code> when the block has no negative coefficient:
+ *     the lower bound is then a true lower bound of the spectral radius of the block, even if the iterations
+ *     did not converge, and the estimate is the middle of the bounds.
+ * </p>
+ * <p>
+ *     With negative coefficients the spectral radius of <code>|B|</code> is only an upper bound.
+ *     The estimate of such a block is the growth rate of <code>B<sup>k</sup>x</code>, measured by power
+ *     iterations on <code>B</code> itself: it is neither a lower nor an upper bound, but it is capped by the
+ *     upper bound. A single process looping on itself is exact in both cases.
+ * </p>
+ * <p>
+ *     A component is reported as not lower than a limit (see {@link #getComponentsAbove(double)}) from its lower
+ *     bound when it has no negative coefficient, from its signed estimate otherwise.
+ * </p>
+ */
+public class SpectralRadiusEstimator {
+    protected double tolerance = 1e-6;
+    protected int maxIterations = 1000;
+
+    protected ArrayList<int[]> components;
+    protected double[] lowerBounds;
+    protected double[] upperBounds;
+    protected double[] signedEstimates;
+    protected boolean[] signed;
+
+    /**
+     * @param dependencyMatrix the technology matrix R
+     * @param graph the process graph matching the rows and columns of R
+     */
+    public SpectralRadiusEstimator(SparseColumnMatrix dependencyMatrix, ProcessGraph graph) {
+        components = graph.getComponents();
+        lowerBounds = new double[components.size()];
+        upperBounds = new double[components.size()];
+        signedEstimates = new double[components.size()];
+        signed = new boolean[components.size()];
+        int n = dependencyMatrix.columns();
+        int[] componentOf = new int[n];
+        int[] localIndexes = new int[n];
+        for (int c = 0; c < components.size(); c++) {
+            int[] members = components.get(c);
+            for (int k = 0; k < members.length; k++) {
+                componentOf[members[k]] = c;
+                localIndexes[members[k]] = k;
+            }
+        }
+        int[] pointers = dependencyMatrix.getColumnPointers();
+        int[] rows = dependencyMatrix.getRowIndices();
+        double[] values = dependencyMatrix.getValues();
+        for (int c = 0; c < components.size(); c++) {
+            if (!graph.isCyclic(c)) {
+                continue;
+            }
+            int[] members = components.get(c);
+            if (1 == members.length) {
+                double diagonal = 0.0;
+                for (int p = pointers[members[0]]; p < pointers[members[0] + 1]; p++) {
+                    if (rows[p] == members[0]) {
+                        diagonal += values[p];
+                    }
+                }
+                lowerBounds[c] = Math.abs(diagonal);
+                upperBounds[c] = Math.abs(diagonal);
+            }
+            else {
+                estimate(c, members, componentOf, localIndexes, pointers, rows, values);
+                if (signed[c]) {
+                    estimateSigned(c, members, componentOf, localIndexes, pointers, rows, values);
+                }
+            }
+        }
+    }
+
+    protected void estimate(int component, int[] members, int[] componentOf, int[] localIndexes,
+                            int[] pointers, int[] rows, double[] values) {
+        int size = members.length;
+        double[] x = new double[size];
+        double[] y = new double[size];
+        Arrays.fill(x, 1.0);
+        double lower = 0.0;
+        double upper = Double.POSITIVE_INFINITY;
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            // y = (|B| + I) x, B being stored in the columns of R
+            System.arraycopy(x, 0, y, 0, size);
+            for (int k = 0; k < size; k++) {
+                int j = members[k];
+                for (int p = pointers[j]; p < pointers[j + 1]; p++) {
+                    if (componentOf[rows[p]] == component) {
+                        y[localIndexes[rows[p]]] += Math.abs(values[p]) * x[k];
+                        signed[component] |= values[p] < 0.0;
+                    }
+                }
+            }
+            double iterationLower = Double.POSITIVE_INFINITY;
+            double iterationUpper = 0.0;
+            double norm = 0.0;
+            for (int k = 0; k < size; k++) {
+                double ratio = y[k] / x[k];
+                iterationLower = Math.min(iterationLower, ratio);
+                iterationUpper = Math.max(iterationUpper, ratio);
+                norm = Math.max(norm, y[k]);
+            }
+            lower = Math.max(lower, iterationLower - 1.0);
+            upper = Math.min(upper, iterationUpper - 1.0);
+            if (upper - lower <= tolerance * Math.max(upper, 1.0)) {
+                break;
+            }
+            for (int k = 0; k < size; k++) {
+                x[k] = y[k] / norm;
+            }
+        }
+        lowerBounds[component] = lower;
+        upperBounds[component] = upper;
+    }
+
+    /**
+     * Estimates the spectral radius of a block with negative coefficients by the growth rate of
+     * <code>B<sup>k</sup>x</code> over the second half of the iterations, which smooths the oscillations
+     * of the eigenvalues of same modulus.
+     */
+    protected void estimateSigned(int component, int[] members, int[] componentOf, int[] localIndexes,
+                                  int[] pointers, int[] rows, double[] values) {
+        int size = members.length;
+        double[] x = new double[size];
+        double[] y = new double[size];
+        double[] logNorms = new double[maxIterations + 1];
+        Arrays.fill(x, 1.0);
+        double estimate = 0.0;
+        for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            Arrays.fill(y, 0.0);
+            for (int k = 0; k < size; k++) {
+                int j = members[k];
+                for (int p = pointers[j]; p < pointers[j + 1]; p++) {
+                    if (componentOf[rows[p]] == component) {
+                        y[localIndexes[rows[p]]] += values[p] * x[k];
+                    }
+                }
+            }
+            double norm = 0.0;
+            for (int k = 0; k < size; k++) {
+                norm = Math.max(norm, Math.abs(y[k]));
+            }
+            if (0.0 == norm) {
+                // B is nilpotent on x
+                estimate = 0.0;
+                break;
+            }
+            logNorms[iteration] = logNorms[iteration - 1] + Math.log(norm);
+            int half = iteration / 2;
+            double previous = estimate;
+            estimate = Math.exp((logNorms[iteration] - logNorms[half]) / (iteration - half));
+            if (iteration >= 10 && Math.abs(estimate - previous) <= tolerance * Math.max(estimate, 1.0)) {
+                break;
+            }
+            for (int k = 0; k < size; k++) {
+                x[k] = y[k] / norm;
+            }
+        }
+        signedEstimates[component] = Math.min(estimate, upperBounds[component]);
+    }
+
+    /**
+     * @return the estimate of the spectral radius of R
+     */
+    public double getSpectralRadius() {
+        double radius = 0.0;
+        for (int c = 0; c < components.size(); c++) {
+            radius = Math.max(radius, getSpectralRadius(c));
+        }
+        return radius;
+    }
+
+    /**
+     * @param component the position of a component of the process graph
+     * @return the estimate of the spectral radius of the diagonal block of the component, zero if it is acyclic
+     */
+    public double getSpectralRadius(int component) {
+        if (signed[component]) {
+            return signedEstimates[component];
+        }
+        return (lowerBounds[component] + upperBounds[component]) / 2;
+    }
+
+    /**
+     * @param component the position of a component of the process graph
+     * @return a lower bound of the spectral radius of <code>|B|</code>, which is also one of the spectral radius
+     *         of the block of the component if it has no negative coefficient
+     */
+    public double getLowerBound(int component) {
+        return lowerBounds[component];
+    }
+
+    /**
+     * @param component the position of a component of the process graph
+     * @return an upper bound of the spectral radius of the block of the component
+     */
+    public double getUpperBound(int component) {
+        return upperBounds[component];
+    }
+
+    /**
+     * @param component the position of a component of the process graph
+     * @return true if the block of the component has negative coefficients
+     */
+    public boolean isSigned(int component) {
+        return signed[component];
+    }
+
+    /**
+     * @param limit the limit of the spectral radius
+     * @return the positions of the components whose spectral radius is not lower than the limit:
+     *         its lower bound for the non negative blocks, its estimate for the blocks with negative coefficients
+     */
+    public ArrayList<Integer> getComponentsAbove(double limit) {
+        ArrayList<Integer> found = new ArrayList<>();
+        for (int c = 0; c < components.size(); c++) {
+            if ((signed[c] ? signedEstimates[c] : lowerBounds[c]) >= limit) {
+                found.add(c);
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import java.util.Arrays;
+
+/**
+ * Collects the entries of a sparse matrix as (row, column, value) triplets stored in primitive arrays
+ * and compresses them once into a compressed column storage.
+ *
+ * Duplicated entries are summed and the entries summing to zero are dropped.
+ * The compression is done in linear time with two counting sorts, by row then by column,
+ * so that the rows are sorted inside each column as la4j expects it.
+ */
+public class TripletMatrixBuilder {
+    protected int rows;
+    protected int columns;
+    protected int size = 0;
+    protected int[] rowIndices;
+    protected int[] columnIndices;
+    protected double[] values;
+
+    public TripletMatrixBuilder(int rows, int columns) {
+        this(rows, columns, 16);
+    }
+
+    /**
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param capacity the expected number of entries
+     */
+    public TripletMatrixBuilder(int rows, int columns, int capacity) {
+        this.rows = rows;
+        this.columns = columns;
+        capacity = Math.max(capacity, 1);
+        rowIndices = new int[capacity];
+        columnIndices = new int[capacity];
+        values = new double[capacity];
+    }
+
+    /**
+     * Adds a value to the entry (row, column), zero values are ignored.
+     *
+     * @param row the row index
+     * @param column the column index
+     * @param value the value to add
+     */
+    public void add(int row, int column, double value) {
+        if (row < 0 || row >= rows || column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("Entry (" + row + ", " + column + ") is out of a "
+                                                + rows + "x" + columns + " matrix");
+        }
+        if (0.0 == value) {
+            return;
+        }
+        if (size == values.length) {
+            int capacity = values.length * 2;
+            rowIndices = Arrays.copyOf(rowIndices, capacity);
+            columnIndices = Arrays.copyOf(columnIndices, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        rowIndices[size] = row;
+        columnIndices[size] = column;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * @return the number of entries added so far, duplicates included
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the compressed column storage of the entries
+     */
+    public SparseColumnMatrix build() {
+        // stable counting sort by row
+        int[] next = new int[rows + 1];
+        for (int p = 0; p < size; p++) {
+            next[rowIndices[p] + 1]++;
+        }
+        for (int i = 0; i < rows; i++) {
+            next[i + 1] += next[i];
+        }
+        int[] byRow = new int[size];
+        for (int p = 0; p < size; p++) {
+            byRow[next[rowIndices[p]]++] = p;
+        }
+
+        // stable counting sort by column
+        int[] columnStarts = new int[columns + 1];
+        for (int p = 0; p < size; p++) {
+            columnStarts[columnIndices[p] + 1]++;
+        }
+        for (int j = 0; j < columns; j++) {
+            columnStarts[j + 1] += columnStarts[j];
+        }
+        next = Arrays.copyOf(columnStarts, columns);
+        int[] order = new int[size];
+        for (int k = 0; k < size; k++) {
+            int p = byRow[k];
+            order[next[columnIndices[p]]++] = p;
+        }
+
+        // sum the duplicates, which are now adjacent, and drop the zeros
+        int[] columnPointers = new int[columns + 1];
+        int[] compressedRows = new int[size];
+        double[] compressedValues = new double[size];
+        int nz = 0;
+        for (int j = 0; j < columns; j++) {
+            int start = nz;
+            columnPointers[j] = start;
+            for (int k = columnStarts[j]; k < columnStarts[j + 1]; k++) {
+                int p = order[k];
+                if (nz > start && compressedRows[nz - 1] == rowIndices[p]) {
+                    compressedValues[nz - 1] += values[p];
+                }
+                else {
+                    compressedRows[nz] = rowIndices[p];
+                    compressedValues[nz] = values[p];
+                    nz++;
+                }
+            }
+            int end = nz;
+            nz = start;
+            for (int q = start; q < end; q++) {
+                if (0.0 != compressedValues[q]) {
+                    compressedRows[nz] = compressedRows[q];
+                    compressedValues[nz] = compressedValues[q];
+                    nz++;
+                }
+            }
+        }
+        columnPointers[columns] = nz;
+
+        return new SparseColumnMatrix(
+                rows,
+                columns,
+                columnPointers,
+                Arrays.copyOf(compressedRows, nz),
+                Arrays.copyOf(compressedValues, nz));
+    }
+}
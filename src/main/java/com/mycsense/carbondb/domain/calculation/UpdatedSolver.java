@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *     Solves the technology system after successive changes of a few columns of R,
+ *     without factorizing it again: the changes are accumulated into one {@link LowRankUpdate}
+ *     applied on top of the solver of the system before the first change.
+ * </p>
+ * <p>
+ *     Each change only solves the base system for the columns it touches, the solutions of the other
+ *     changed columns being kept. The cost of a solve grows with the number of changed columns,
+ *     the caller is expected to factorize the system again past a given rank.
+ * </p>
+ * <p>
+ *     The changes must not be added while other threads solve with the solver.
+ * </p>
+ */
+public class UpdatedSolver implements LinearSolver {
+    protected LinearSolver base;
+    protected SparseColumnMatrix delta;
+    protected LowRankUpdate update;
+    protected ConcurrentHashMap<Integer, double[]> transposedSolutions = new ConcurrentHashMap<>();
+
+    /**
+     * @param base the solver of the system before the changes
+     * @param n the size of the system
+     */
+    public UpdatedSolver(LinearSolver base, int n) {
+        this.base = base;
+        delta = new TripletMatrixBuilder(n, n).build();
+    }
+
+    /**
+     * @return the number of columns of R changed since the base system
+     */
+    public int rank() {
+        return null == update ? 0 : update.rank();
+    }
+
+    /**
+     * Adds a change of R to the accumulated ones.
+     *
+     * @param change the change of the technology matrix R
+     * @return false if the changed system is singular, in which case the solver is left unchanged
+     */
+    public boolean add(SparseColumnMatrix change) {
+        SparseColumnMatrix accumulated = delta.add(change);
+        LowRankUpdate next = new LowRankUpdate(accumulated);
+        if (!next.prepare(base, update, change)) {
+            return false;
+        }
+        delta = accumulated;
+        update = next;
+        return true;
+    }
+
+    @Override
+    public void solve(double[] rhs, double[] solution) {
+        base.solve(rhs, solution);
+        if (null != update) {
+            update.apply(solution);
+        }
+    }
+
+    /**
+     * With <code>A = A<sub>0</sub> - U V<sup>T</sup></code>, the Woodbury identity on the transposed system gives
+     * <code>y = y<sub>0</sub> + A<sub>0</sub><sup>-T</sup> V C<sup>-T</sup> U<sup>T</sup> y<sub>0</sub></code>,
+     * where <code>C</code> is the capacitance matrix of the update. The solutions
+     * <code>A<sub>0</sub><sup>-T</sup> e<sub>j</sub></code> are kept for the changed columns j.
+     */
+    @Override
+    public void solveTransposed(double[] rhs, double[] solution) {
+        base.solveTransposed(rhs, solution);
+        if (null == update) {
+            return;
+        }
+        int[] sources = update.getSources();
+        int[] pointers = delta.getColumnPointers();
+        int[] rows = delta.getRowIndices();
+        double[] values = delta.getValues();
+        double[] y = new double[sources.length];
+        for (int e = 0; e < sources.length; e++) {
+            for (int p = pointers[sources[e]]; p < pointers[sources[e] + 1]; p++) {
+                y[e] += values[p] * solution[rows[p]];
+            }
+        }
+        update.solveCapacitanceTransposed(y);
+        for (int e = 0; e < sources.length; e++) {
+            if (0.0 != y[e]) {
+                double[] column = transposedSolution(sources[e], solution.length);
+                for (int i = 0; i < solution.length; i++) {
+                    solution[i] += column[i] * y[e];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param j the index of a changed column
+     * @param n the size of the system
+     * @return the solution of <code>A<sub>0</sub><sup>T</sup> y = e<sub>j</sub></code>
+     */
+    protected double[] transposedSolution(int j, int n) {
+        double[] column = transposedSolutions.get(j);
+        if (null == column) {
+            double[] unit = new double[n];
+            unit[j] = 1.0;
+            column = new double[n];
+            base.solveTransposed(unit, column);
+            transposedSolutions.put(j, column);
+        }
+        return column;
+    }
+}
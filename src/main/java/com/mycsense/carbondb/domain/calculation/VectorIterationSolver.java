@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.calculation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ *     Solves <code>(I - R) x = c</code> by iterating <code>x<sub>k+1</sub> = c + R x<sub>k</sub></code>
+ *     with sparse matrix-vector products only, so no power of <code>R</code> is ever formed.
+ *     Starting from <code>x<sub>0</sub> = c</code>, the Jacobi iterates are the partial sums of the power series
+ *     applied to <code>c</code>, the Gauss-Seidel variant converges faster by using the updated values
+ *     of the current sweep.
+ * </p>
+ * <p>
+ *     Each right-hand side converges on its own: the iteration stops when no value changed
+ *     by more than the threshold (see {@link ConvergenceTracker}), or when the maximum number of iterations
+ *     is reached.
+ *     The memory used is proportional to the number of non zero entries of <code>R</code>.
+ * </p>
+ */
+public class VectorIterationSolver implements LinearSolver {
+    // compressed row storage of R, i.e. R transposed in compressed column storage
+    protected int[] rowPointers;
+    protected int[] columnIndices;
+    protected double[] values;
+    // compressed column storage of R, i.e. the rows of R transposed
+    protected int[] columnPointers;
+    protected int[] rowIndices;
+    protected double[] columnValues;
+    protected double[] diagonal;
+    protected int n;
+
+    protected double threshold;
+    protected double relativeThreshold;
+    protected int maxIterations;
+    protected boolean gaussSeidel;
+
+    protected AtomicInteger unconvergedCount = new AtomicInteger();
+
+    /**
+     * @param dependencyMatrix the technology matrix R
+     * @param threshold the iteration stops when no value changes by more than this threshold
+     * @param maxIterations the maximum number of iterations for each right-hand side
+     * @param gaussSeidel true for Gauss-Seidel iterations, false for Jacobi iterations
+     */
+    public VectorIterationSolver(SparseColumnMatrix dependencyMatrix,
+                                 double threshold,
+                                 int maxIterations,
+                                 boolean gaussSeidel) {
+        this(dependencyMatrix, threshold, 0.0, maxIterations, gaussSeidel);
+    }
+
+    /**
+     * @param dependencyMatrix the technology matrix R
+     * @param threshold the iteration stops when no value changes by more than this threshold
+     * @param relativeThreshold the iteration stops when no value changes relatively by more than this threshold
+     * @param maxIterations the maximum number of iterations for each right-hand side
+     * @param gaussSeidel true for Gauss-Seidel iterations, false for Jacobi iterations
+     */
+    public VectorIterationSolver(SparseColumnMatrix dependencyMatrix,
+                                 double threshold,
+                                 double relativeThreshold,
+                                 int maxIterations,
+                                 boolean gaussSeidel) {
+        SparseColumnMatrix rows = dependencyMatrix.transpose();
+        n = rows.columns();
+        rowPointers = rows.getColumnPointers();
+        columnIndices = rows.getRowIndices();
+        values = rows.getValues();
+        columnPointers = dependencyMatrix.getColumnPointers();
+        rowIndices = dependencyMatrix.getRowIndices();
+        columnValues = dependencyMatrix.getValues();
+        diagonal = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                if (columnIndices[p] == i) {
+                    diagonal[i] += values[p];
+                }
+            }
+        }
+        this.threshold = threshold;
+        this.relativeThreshold = relativeThreshold;
+        this.maxIterations = maxIterations;
+        this.gaussSeidel = gaussSeidel;
+    }
+
+    @Override
+    public void solve(double[] rhs, double[] solution) {
+        iterate(rhs, solution, rowPointers, columnIndices, values);
+    }
+
+    @Override
+    public void solveTransposed(double[] rhs, double[] solution) {
+        iterate(rhs, solution, columnPointers, rowIndices, columnValues);
+    }
+
+    /**
+     * Iterates <code>x<sub>k+1</sub> = c + M x<sub>k</sub></code>, M being R or its transpose.
+     *
+     * @param rhs the right-hand side c
+     * @param solution the solution x
+     * @param pointers the row pointers of M
+     * @param indices the column indices of M
+     * @param matrix the values of M
+     */
+    protected void iterate(double[] rhs, double[] solution, int[] pointers, int[] indices, double[] matrix) {
+        System.arraycopy(rhs, 0, solution, 0, n);
+        double[] previous = gaussSeidel ? null : new double[n];
+        ConvergenceTracker tracker = new ConvergenceTracker(threshold, relativeThreshold);
+        while (!tracker.hasConverged() && tracker.getIterations() < maxIterations) {
+            tracker.startIteration();
+            if (gaussSeidel) {
+                gaussSeidelSweep(rhs, solution, pointers, indices, matrix, tracker);
+            }
+            else {
+                jacobiSweep(rhs, solution, previous, pointers, indices, matrix, tracker);
+            }
+        }
+        if (!tracker.hasConverged()) {
+            unconvergedCount.incrementAndGet();
+        }
+    }
+
+    protected void jacobiSweep(double[] rhs, double[] x, double[] previous,
+                               int[] pointers, int[] indices, double[] matrix, ConvergenceTracker tracker) {
+        System.arraycopy(x, 0, previous, 0, n);
+        for (int i = 0; i < n; i++) {
+            double value = rhs[i];
+            for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                value += matrix[p] * previous[indices[p]];
+            }
+            tracker.record(value - previous[i], value);
+            x[i] = value;
+        }
+    }
+
+    protected void gaussSeidelSweep(double[] rhs, double[] x,
+                                    int[] pointers, int[] indices, double[] matrix, ConvergenceTracker tracker) {
+        for (int i = 0; i < n; i++) {
+            double value = rhs[i];
+            for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                if (indices[p] != i) {
+                    value += matrix[p] * x[indices[p]];
+                }
+            }
+            if (Math.abs(1.0 - diagonal[i]) > 0.0) {
+                value /= 1.0 - diagonal[i];
+            }
+            else {
+                value += diagonal[i] * x[i];
+            }
+            tracker.record(value - x[i], value);
+            x[i] = value;
+        }
+    }
+
+    /**
+     * @return the number of right-hand sides for which the maximum number of iterations was reached
+     */
+    public int getUnconvergedCount() {
+        return unconvergedCount.get();
+    }
+}
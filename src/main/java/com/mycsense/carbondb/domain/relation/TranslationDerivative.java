@@ -22,13 +22,7 @@
 
 package com.mycsense.carbondb.domain.relation;
 
-import com.mycsense.carbondb.AlreadyExistsException;
-import com.mycsense.carbondb.NoElementFoundException;
-import com.mycsense.carbondb.domain.CarbonOntology;
-import com.mycsense.carbondb.domain.Coefficient;
-import com.mycsense.carbondb.domain.DerivedRelation;
 import com.mycsense.carbondb.domain.Dimension;
-import com.mycsense.carbondb.domain.Process;
 import com.mycsense.carbondb.domain.SourceRelation;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -49,39 +43,20 @@ public class TranslationDerivative {
         this.sourceRelation = sourceRelation;
     }
 
-    public DerivedRelation transformToDerivedRelation()
-            throws NoElementFoundException, AlreadyExistsException {
-        com.mycsense.carbondb.domain.Process source, destination;
-        Coefficient coeff = CarbonOntology.getInstance().findCoefficient(coeffKeywords, sourceRelation.getCoeff().getUnit());
-        try  {
-            source = CarbonOntology.getInstance().findProcess(sourceKeywords, sourceRelation.getSource().getUnit());
-        }
-        catch (NoElementFoundException e) {
-            source = new Process(sourceKeywords.keywords, sourceRelation.getSource().getUnit());
-            sourceRelation.getSource().addElement(source);
-            CarbonOntology.getInstance().addProcess(source);
-        }
-        if (!sourceRelation.getSource().hasElement(source)) {
-            sourceRelation.getSource().addElement(source);
-        }
-        try  {
-            destination = CarbonOntology.getInstance().findProcess(destinationKeywords, sourceRelation.getDestination().getUnit());
-        }
-        catch (NoElementFoundException e) {
-            destination = new Process(destinationKeywords.keywords, sourceRelation.getDestination().getUnit());
-            sourceRelation.getDestination().addElement(destination);
-            CarbonOntology.getInstance().addProcess(destination);
-        }
-        if (!sourceRelation.getDestination().hasElement(destination)) {
-            sourceRelation.getDestination().addElement(destination);
-        }
-        return new DerivedRelation(
-                source,
-                coeff,
-                destination,
-                sourceRelation,
-                sourceRelation.getType(),
-                sourceRelation.getExponent());
+    public Dimension getSourceKeywords() {
+        return sourceKeywords;
+    }
+
+    public Dimension getCoeffKeywords() {
+        return coeffKeywords;
+    }
+
+    public Dimension getDestinationKeywords() {
+        return destinationKeywords;
+    }
+
+    public SourceRelation getSourceRelation() {
+        return sourceRelation;
     }
 
     @Override
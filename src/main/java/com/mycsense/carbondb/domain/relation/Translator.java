@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb.domain.relation;
+
+import com.mycsense.carbondb.AlreadyExistsException;
+import com.mycsense.carbondb.IncompatibleDimSetException;
+import com.mycsense.carbondb.IncompatibleUnitsException;
+import com.mycsense.carbondb.domain.CarbonOntology;
+import com.mycsense.carbondb.domain.Coefficient;
+import com.mycsense.carbondb.domain.DerivedRelation;
+import com.mycsense.carbondb.domain.Dimension;
+import com.mycsense.carbondb.domain.Group;
+import com.mycsense.carbondb.domain.Process;
+import com.mycsense.carbondb.domain.SourceRelation;
+import com.mycsense.carbondb.domain.Unit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ *     Translates the source relations into derived relations with a pool of workers.
+ * </p>
+ * <p>
+ *     The workers translate the source relations and resolve the elements of every derivative:
+ *     the coefficients are looked up in the ontology, which only reads its index of the coefficients,
+ *     and the processes are found or created in a concurrent registry, so that a process is created only once
+ *     even if several source relations reference it at the same time.
+ *     The ontology is not modified by the workers.
+ * </p>
+ * <p>
+ *     The results are then merged sequentially, in the order of the source relations:
+ *     the new processes are added to the ontology and to their groups, and the derived relations are created.
+ *     The processes, their indexes and the derived relations are thus the same as with a sequential translation,
+ *     whatever the number of workers.
+ * </p>
+ */
+public class Translator {
+    protected CarbonOntology ontology;
+    protected int parallelism;
+    protected ConcurrentHashMap<Process, Process> processes;
+
+    private final Logger log = LoggerFactory.getLogger(Translator.class);
+
+    /**
+     * @param ontology the ontology containing the single elements, it receives the derived relations
+     * @param parallelism the number of workers translating the source relations
+     */
+    public Translator(CarbonOntology ontology, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be at least 1, got " + parallelism);
+        }
+        this.ontology = ontology;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Translates the source relations and adds the resulting derived relations to the ontology.
+     *
+     * @param sourceRelations the source relations, the derived relations are created in this order
+     * @return the number of derived relations created
+     */
+    public int translate(Collection<SourceRelation> sourceRelations) {
+        processes = new ConcurrentHashMap<>();
+        for (Process process: ontology.getProcesses()) {
+            processes.put(process, process);
+        }
+
+        List<Callable<Translation>> tasks = new ArrayList<>();
+        for (final SourceRelation sourceRelation: sourceRelations) {
+            tasks.add(new Callable<Translation>() {
+                @Override
+                public Translation call() {
+                    return translate(sourceRelation);
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, tasks.size())));
+        int count = 0;
+        try {
+            for (Future<Translation> result: executor.invokeAll(tasks)) {
+                count += merge(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The translation of the source relations was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("The translation of a source relation failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return count;
+    }
+
+    /**
+     * Translates a source relation and resolves the elements of its derivatives, without modifying the ontology.
+     *
+     * @param sourceRelation a source relation
+     * @return the translation of the source relation
+     */
+    protected Translation translate(SourceRelation sourceRelation) {
+        Translation translation = new Translation(sourceRelation);
+        ArrayList<TranslationDerivative> derivatives;
+        try {
+            derivatives = sourceRelation.translate();
+        } catch (IncompatibleDimSetException | IncompatibleUnitsException e) {
+            translation.error = e;
+            return translation;
+        }
+        for (TranslationDerivative derivative: derivatives) {
+            Coefficient coefficient = ontology.getCoefficient(
+                    derivative.getCoeffKeywords(), sourceRelation.getCoeff().getUnit());
+            // the derivatives without coefficient are ignored
+            if (null != coefficient) {
+                translation.derivatives.add(new ResolvedDerivative(
+                        findOrCreateProcess(derivative.getSourceKeywords(), sourceRelation.getSource().getUnit()),
+                        coefficient,
+                        findOrCreateProcess(derivative.getDestinationKeywords(), sourceRelation.getDestination().getUnit())));
+            }
+        }
+        return translation;
+    }
+
+    /**
+     * @param keywords the keywords of a process
+     * @param unit the unit of a process
+     * @return the process with these keywords and unit, the same instance being returned to all the workers
+     */
+    protected Process findOrCreateProcess(Dimension keywords, Unit unit) {
+        Process candidate = new Process(keywords.getKeywords(), unit);
+        Process existing = processes.putIfAbsent(candidate, candidate);
+        return null == existing ? candidate : existing;
+    }
+
+    /**
+     * Adds the new processes and the derived relations of a translation to the ontology.
+     *
+     * @param translation the translation of a source relation
+     * @return the number of derived relations created
+     */
+    protected int merge(Translation translation) {
+        if (null != translation.error) {
+            log.warn(translation.error.getMessage());
+            return 0;
+        }
+        SourceRelation sourceRelation = translation.sourceRelation;
+        for (ResolvedDerivative derivative: translation.derivatives) {
+            addProcess(derivative.source, sourceRelation.getSource());
+            addProcess(derivative.destination, sourceRelation.getDestination());
+            ontology.addDerivedRelation(new DerivedRelation(
+                    derivative.source,
+                    derivative.coefficient,
+                    derivative.destination,
+                    sourceRelation,
+                    sourceRelation.getType(),
+                    sourceRelation.getExponent()));
+        }
+        return translation.derivatives.size();
+    }
+
+    /**
+     * @param process a resolved process
+     * @param group the group of the source relation the process belongs to
+     */
+    protected void addProcess(Process process, Group group) {
+        if (!ontology.getProcesses().contains(process)) {
+            group.addElement(process);
+            try {
+                ontology.addProcess(process);
+            } catch (AlreadyExistsException e) {
+                log.warn(e.getMessage());
+            }
+        }
+        if (!group.hasElement(process)) {
+            group.addElement(process);
+        }
+    }
+
+    protected static class Translation {
+        protected SourceRelation sourceRelation;
+        protected ArrayList<ResolvedDerivative> derivatives = new ArrayList<>();
+        protected Throwable error;
+
+        protected Translation(SourceRelation sourceRelation) {
+            this.sourceRelation = sourceRelation;
+        }
+    }
+
+    protected static class ResolvedDerivative {
+        protected Process source;
+        protected Coefficient coefficient;
+        protected Process destination;
+
+        protected ResolvedDerivative(Process source, Coefficient coefficient, Process destination) {
+            this.source = source;
+            this.coefficient = coefficient;
+            this.destination = destination;
+        }
+    }
+}
@@ -0,0 +1,846 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.mycsense.carbondb.domain.*;
+import com.mycsense.carbondb.domain.Process;
+import com.mycsense.carbondb.domain.calculation.AnalyticUncertaintyPropagation;
+import com.mycsense.carbondb.domain.calculation.AnalyticUncertaintyPropagation.UncertainMatrix;
+import com.mycsense.carbondb.domain.calculation.CalculationStore;
+import com.mycsense.carbondb.domain.calculation.ConvergenceTracker;
+import com.mycsense.carbondb.domain.calculation.LinearSolver;
+import com.mycsense.carbondb.domain.calculation.MinimumDegreeOrdering;
+import com.mycsense.carbondb.domain.calculation.ParallelColumnSolver;
+import com.mycsense.carbondb.domain.calculation.ProcessGraph;
+import com.mycsense.carbondb.domain.calculation.RunningStatistics;
+import com.mycsense.carbondb.domain.calculation.SolverType;
+import com.mycsense.carbondb.domain.calculation.SparseColumnMatrix;
+import com.mycsense.carbondb.domain.calculation.SparseLU;
+import com.mycsense.carbondb.domain.calculation.TripletMatrixBuilder;
+import com.mycsense.carbondb.domain.calculation.UncertaintyMode;
+import com.mycsense.carbondb.domain.relation.Type;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.la4j.matrix.sparse.CCSMatrix;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Unit test for Calculation.
+ */
+@RunWith(JUnit4.class)
+public class CalculationTest {
+    CarbonOntology ontology;
+    Unit unit;
+    UnitTools unitTools;
+    ElementaryFlowType flowType;
+    ImpactType impactType;
+    SourceRelation sourceRelation;
+    RelationType relationType;
+    Process p1, p2, p3;
+    int coefficientCount;
+
+    @Before
+    public void setUp() throws Exception {
+        unitTools = Mockito.mock(UnitTools.class);
+        Mockito.when(unitTools.getConversionFactor(Mockito.any(Unit.class))).thenReturn(1.0);
+        Mockito.when(unitTools.areCompatible(Mockito.any(Unit.class), Mockito.any(Unit.class))).thenReturn(true);
+        Unit.setUnitTools(unitTools);
+        unit = new Unit("unit", "", "");
+
+        ontology = CarbonOntology.getInstance();
+        ontology.clear();
+
+        flowType = new ElementaryFlowType("eft", "flow", unit);
+        TypeCategory flowTypesTree = new TypeCategory(unit);
+        Category flowCategory = new Category("flowCategory");
+        flowCategory.addChild(flowType);
+        flowTypesTree.addChild(flowCategory);
+        ontology.setElementaryFlowTypesTree(flowTypesTree);
+
+        impactType = new ImpactType("it", "impact", unit);
+        impactType.addComponent(flowType, new Value(2.0, 0.0));
+        TypeCategory impactTypesTree = new TypeCategory(unit);
+        Category impactCategory = new Category("impactCategory");
+        impactCategory.addChild(impactType);
+        impactTypesTree.addChild(impactCategory);
+        ontology.setImpactTypesTree(impactTypesTree);
+
+        relationType = new RelationType("type", "type", Type.SYNCHRONOUS);
+        sourceRelation = new SourceRelation(new Group(), new Group(), new Group());
+
+        p1 = createProcess("p1");
+        p2 = createProcess("p2");
+        p3 = createProcess("p3");
+        coefficientCount = 0;
+    }
+
+    protected Process createProcess(String keyword) throws AlreadyExistsException {
+        Process process = new Process(new Dimension(new Keyword(keyword)).getKeywords(), unit);
+        ontology.addProcess(process);
+        return process;
+    }
+
+    protected Coefficient addRelation(Process source, double value, Process destination) throws AlreadyExistsException {
+        coefficientCount++;
+        Coefficient coefficient = new Coefficient(
+                new Dimension(new Keyword("c" + coefficientCount)),
+                unit,
+                new Value(value, 0.0));
+        ontology.addCoefficient(coefficient);
+        ontology.addDerivedRelation(new DerivedRelation(source, coefficient, destination, sourceRelation, relationType));
+        return coefficient;
+    }
+
+    protected void addFlow(Process process, double value) throws AlreadyExistsException {
+        process.addInputFlow(new ElementaryFlow(flowType, new Value(value, 0.0)));
+    }
+
+    protected void createChain() throws AlreadyExistsException {
+        addRelation(p1, 2.0, p2);
+        addRelation(p2, 3.0, p3);
+        addFlow(p1, 1.0);
+        addFlow(p2, 1.0);
+    }
+
+    protected void createLoop() throws AlreadyExistsException {
+        addRelation(p1, 0.5, p2);
+        addRelation(p2, 0.5, p1);
+        addFlow(p1, 1.0);
+    }
+
+    protected Calculation calculate(SolverType solverType)
+            throws AlreadyExistsException, DivergentCalculationException {
+        Calculation calculation = new Calculation();
+        calculation.setSolverType(solverType);
+        calculation.setThreshold(1e-12);
+        calculation.run();
+        calculation.createCalculatedElementaryFlows();
+        calculation.createImpacts();
+        return calculation;
+    }
+
+    protected double flow(Process process) {
+        return process.getCalculatedFlows().get(flowType.getId()).getValue().value;
+    }
+
+    protected double impact(Process process) {
+        return process.getImpacts().get(impactType.getId()).getValue().value;
+    }
+
+    @Test
+    public void seriesCalculationOnChain() throws Exception {
+        createChain();
+        calculate(SolverType.SERIES);
+        assertEquals(1.0, flow(p1), 1e-12);
+        assertEquals(3.0, flow(p2), 1e-12);
+        assertEquals(9.0, flow(p3), 1e-12);
+        assertEquals(18.0, impact(p3), 1e-12);
+    }
+
+    @Test
+    public void directCalculationOnChain() throws Exception {
+        createChain();
+        calculate(SolverType.DIRECT);
+        assertEquals(1.0, flow(p1), 1e-12);
+        assertEquals(3.0, flow(p2), 1e-12);
+        assertEquals(9.0, flow(p3), 1e-12);
+        assertEquals(18.0, impact(p3), 1e-12);
+    }
+
+    @Test
+    public void directCalculationWithLoop() throws Exception {
+        createLoop();
+        calculate(SolverType.DIRECT);
+        assertEquals(4.0 / 3.0, flow(p1), 1e-12);
+        assertEquals(2.0 / 3.0, flow(p2), 1e-12);
+        assertEquals(4.0 / 3.0, impact(p2), 1e-12);
+    }
+
+    @Test
+    public void seriesCalculationWithRelativeThreshold() throws Exception {
+        createLoop();
+        Calculation calculation = new Calculation();
+        calculation.setThreshold(0.0);
+        calculation.setRelativeThreshold(1e-12);
+        calculation.run();
+        calculation.createCalculatedElementaryFlows();
+        assertEquals(4.0 / 3.0, flow(p1), 1e-10);
+        assertEquals(2.0 / 3.0, flow(p2), 1e-10);
+    }
+
+    @Test
+    public void convergenceTracker() {
+        ConvergenceTracker tracker = new ConvergenceTracker(0.1, 0.01);
+        assertFalse(tracker.hasConverged());
+        tracker.startIteration();
+        tracker.record(0.5, 100.0);
+        assertTrue(tracker.hasConverged());
+        tracker.startIteration();
+        tracker.record(0.5, 1.0);
+        assertFalse(tracker.hasConverged());
+        assertEquals(0.5, tracker.getMaxAbsoluteChange(), 0.0);
+        assertEquals(0.5, tracker.getMaxRelativeChange(), 0.0);
+        assertEquals(2, tracker.getIterations());
+    }
+
+    @Test
+    public void jacobiCalculationWithLoop() throws Exception {
+        createLoop();
+        calculate(SolverType.JACOBI);
+        assertEquals(4.0 / 3.0, flow(p1), 1e-10);
+        assertEquals(2.0 / 3.0, flow(p2), 1e-10);
+    }
+
+    @Test
+    public void gaussSeidelCalculationWithLoop() throws Exception {
+        createLoop();
+        calculate(SolverType.GAUSS_SEIDEL);
+        assertEquals(4.0 / 3.0, flow(p1), 1e-10);
+        assertEquals(2.0 / 3.0, flow(p2), 1e-10);
+    }
+
+    @Test
+    public void blockTriangularCalculationOnChain() throws Exception {
+        createChain();
+        calculate(SolverType.BLOCK_TRIANGULAR);
+        assertEquals(1.0, flow(p1), 1e-12);
+        assertEquals(3.0, flow(p2), 1e-12);
+        assertEquals(9.0, flow(p3), 1e-12);
+    }
+
+    @Test
+    public void blockTriangularCalculationWithLoop() throws Exception {
+        createLoop();
+        addRelation(p2, 3.0, p3);
+        addRelation(p3, 0.5, p3);
+        calculate(SolverType.BLOCK_TRIANGULAR);
+        assertEquals(4.0 / 3.0, flow(p1), 1e-12);
+        assertEquals(2.0 / 3.0, flow(p2), 1e-12);
+        assertEquals(4.0, flow(p3), 1e-12);
+    }
+
+    @Test
+    public void parallelColumnSolver() throws Exception {
+        TripletMatrixBuilder dependencies = new TripletMatrixBuilder(3, 3);
+        dependencies.add(1, 0, 0.5);
+        dependencies.add(0, 1, 0.5);
+        dependencies.add(2, 1, 3.0);
+        SparseLU lu = SparseLU.factorize(dependencies.build().minusFromIdentity());
+
+        TripletMatrixBuilder rhs = new TripletMatrixBuilder(3, 20);
+        for (int j = 0; j < 20; j++) {
+            rhs.add(j % 3, j, j + 1.0);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        CCSMatrix solutions = new ParallelColumnSolver(lu, pool).solve(rhs.build()).toCCSMatrix();
+        pool.shutdown();
+
+        double[] b = new double[3];
+        double[] x = new double[3];
+        for (int j = 0; j < 20; j++) {
+            Arrays.fill(b, 0.0);
+            b[j % 3] = j + 1.0;
+            lu.solve(b, x);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(x[i], solutions.get(i, j), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void updateCoefficientOnChain() throws Exception {
+        createChain();
+        Calculation calculation = calculate(SolverType.SERIES);
+        Coefficient coefficient = p1.getDownstreamDerivedRelations().iterator().next().getCoeff();
+        ArrayList<Process> moved = calculation.updateCoefficient(coefficient, new Value(4.0, 0.0));
+        assertEquals(2, moved.size());
+        assertFalse(moved.contains(p1));
+        assertEquals(1.0, flow(p1), 1e-12);
+        assertEquals(5.0, flow(p2), 1e-12);
+        assertEquals(15.0, flow(p3), 1e-12);
+        assertEquals(30.0, impact(p3), 1e-12);
+    }
+
+    @Test
+    public void updateCoefficientWithLoop() throws Exception {
+        createLoop();
+        Calculation calculation = calculate(SolverType.DIRECT);
+        Coefficient coefficient = p1.getDownstreamDerivedRelations().iterator().next().getCoeff();
+        calculation.updateCoefficient(coefficient, new Value(0.25, 0.0));
+        assertEquals(8.0 / 7.0, flow(p1), 1e-12);
+        assertEquals(2.0 / 7.0, flow(p2), 1e-12);
+
+        calculation.setMaxUpdateRank(0);
+        calculation.updateCoefficient(coefficient, new Value(0.5, 0.0));
+        assertEquals(4.0 / 3.0, flow(p1), 1e-12);
+        assertEquals(2.0 / 3.0, flow(p2), 1e-12);
+        assertEquals(4.0 / 3.0, impact(p2), 1e-12);
+    }
+
+    @Test
+    public void processGraphAfterNewProcesses() throws Exception {
+        createLoop();
+        Calculation calculation = calculate(SolverType.BLOCK_TRIANGULAR);
+        Coefficient coefficient = p1.getDownstreamDerivedRelations().iterator().next().getCoeff();
+        // the new process is not in the matrices, it must not be in the graph of the block triangular solver
+        addRelation(p1, 1.0, createProcess("p4"));
+        calculation.setMaxUpdateRank(0);
+        calculation.updateCoefficient(coefficient, new Value(0.25, 0.0));
+        assertEquals(8.0 / 7.0, flow(p1), 1e-12);
+        assertEquals(2.0 / 7.0, flow(p2), 1e-12);
+    }
+
+    static class FactorizationCountingCalculation extends Calculation {
+        int factorizations = 0;
+
+        @Override
+        protected LinearSolver createSolver() {
+            factorizations++;
+            return super.createSolver();
+        }
+    }
+
+    @Test
+    public void successiveUpdatesKeepTheFactorization() throws Exception {
+        Coefficient forward = addRelation(p1, 0.5, p2);
+        Coefficient backward = addRelation(p2, 0.5, p1);
+        Coefficient chain = addRelation(p2, 2.0, p3);
+        addFlow(p1, 1.0);
+        FactorizationCountingCalculation calculation = new FactorizationCountingCalculation();
+        calculation.setSolverType(SolverType.DIRECT);
+        calculation.run();
+        calculation.createCalculatedElementaryFlows();
+        calculation.createImpacts();
+        assertEquals(1, calculation.factorizations);
+
+        calculation.updateCoefficient(forward, new Value(0.25, 0.0));
+        calculation.updateCoefficient(backward, new Value(0.4, 0.0));
+        calculation.updateCoefficient(chain, new Value(3.0, 0.0));
+        calculation.updateCoefficient(forward, new Value(0.6, 0.0));
+        assertEquals(1, calculation.factorizations);
+        assertEquals(1.0 / 0.76, flow(p1), 1e-12);
+        assertEquals(0.6 / 0.76, flow(p2), 1e-12);
+        assertEquals(1.8 / 0.76, flow(p3), 1e-12);
+        assertEquals(calculation.query(p3).get(0).getImpacts().get(impactType.getId()).getValue().value,
+                     impact(p3), 1e-12);
+
+        // past the maximum update rank the solver is factorized again
+        calculation.setMaxUpdateRank(1);
+        calculation.updateCoefficient(chain, new Value(2.0, 0.0));
+        calculation.updateCoefficient(backward, new Value(0.5, 0.0));
+        assertEquals(2, calculation.factorizations);
+        assertEquals(1.0 / 0.7, flow(p1), 1e-12);
+        assertEquals(1.2 / 0.7, flow(p3), 1e-12);
+    }
+
+    @Test
+    public void impactsOnly() throws Exception {
+        createChain();
+        for (SolverType solverType: new SolverType[] {SolverType.SERIES, SolverType.DIRECT}) {
+            p1.setImpacts(new HashMap<String, Impact>());
+            p2.setImpacts(new HashMap<String, Impact>());
+            p3.setImpacts(new HashMap<String, Impact>());
+            Calculation calculation = new Calculation();
+            calculation.setSolverType(solverType);
+            calculation.setThreshold(1e-12);
+            calculation.setImpactsOnly(true);
+            calculation.run();
+            calculation.createCalculatedElementaryFlows();
+            calculation.createImpacts();
+            assertEquals(0, p3.getCalculatedFlows().size());
+            assertEquals(18.0, impact(p3), 1e-12);
+
+            Coefficient coefficient = p1.getDownstreamDerivedRelations().iterator().next().getCoeff();
+            calculation.updateCoefficient(coefficient, new Value(4.0, 0.0));
+            assertEquals(30.0, impact(p3), 1e-12);
+            coefficient.setValue(new Value(2.0, 0.0));
+        }
+    }
+
+    @Test
+    public void sparseLURefactorization() throws Exception {
+        TripletMatrixBuilder dependencies = new TripletMatrixBuilder(3, 3);
+        dependencies.add(1, 0, 0.5);
+        dependencies.add(0, 1, 0.5);
+        dependencies.add(2, 1, 3.0);
+        SparseLU lu = SparseLU.factorize(dependencies.build().minusFromIdentity());
+
+        TripletMatrixBuilder sample = new TripletMatrixBuilder(3, 3);
+        sample.add(1, 0, 0.25);
+        sample.add(0, 1, 0.5);
+        sample.add(2, 1, 2.0);
+        SparseColumnMatrix matrix = sample.build().minusFromIdentity();
+        double[] refactorized = new double[3];
+        double[] factorized = new double[3];
+        lu.refactorize(matrix).solve(new double[] {1.0, 0.0, 0.0}, refactorized);
+        SparseLU.factorize(matrix).solve(new double[] {1.0, 0.0, 0.0}, factorized);
+        assertArrayEquals(factorized, refactorized, 1e-12);
+        assertEquals(8.0 / 7.0, refactorized[0], 1e-12);
+    }
+
+    @Test
+    public void minimumDegreeOrderingWithHub() {
+        int n = 20000;
+        TripletMatrixBuilder dependencies = new TripletMatrixBuilder(n, n);
+        for (int i = 1; i < n; i++) {
+            dependencies.add(i, 0, 0.5);
+            if (i > 1) {
+                dependencies.add(i, i - 1, 0.1);
+            }
+        }
+        int[] permutation = MinimumDegreeOrdering.order(dependencies.build().minusFromIdentity());
+        boolean[] seen = new boolean[n];
+        for (int node: permutation) {
+            assertFalse(seen[node]);
+            seen[node] = true;
+        }
+        // the hub is a dense node, eliminated last
+        assertEquals(0, permutation[n - 1]);
+    }
+
+    @Test
+    public void runningStatisticsMerge() {
+        RunningStatistics all = new RunningStatistics(0.01);
+        RunningStatistics first = new RunningStatistics(0.01);
+        RunningStatistics second = new RunningStatistics(0.01);
+        for (int i = 1; i <= 100; i++) {
+            all.add(i);
+            (i % 3 == 0 ? first : second).add(i);
+        }
+        first.merge(second);
+        assertEquals(100, first.getCount());
+        assertEquals(all.getMean(), first.getMean(), 1e-12);
+        assertEquals(all.getVariance(), first.getVariance(), 1e-9);
+        assertEquals(50.0, first.getQuantile(0.5), 0.5);
+        assertEquals(all.getQuantile(0.9), first.getQuantile(0.9), 0.0);
+    }
+
+    @Test
+    public void monteCarloUncertainties() throws Exception {
+        createChain();
+        for (DerivedRelation relation : p1.getDownstreamDerivedRelations()) {
+            relation.getCoeff().setValue(new Value(2.0, 10.0));
+        }
+        Calculation calculation = new Calculation();
+        calculation.setSolverType(SolverType.DIRECT);
+        calculation.setUncertaintyMode(UncertaintyMode.MONTE_CARLO);
+        calculation.setSampleCount(4000);
+        calculation.setSeed(42L);
+        calculation.setParallelism(2);
+        calculation.run();
+        calculation.createImpacts();
+
+        RunningStatistics statistics = calculation.getImpactStatistics(p3, impactType);
+        assertEquals(4000, statistics.getCount());
+        assertEquals(18.0, statistics.getMean(), 0.2);
+        // only the part 2 x 2 x 3 = 12 of the impact is uncertain
+        assertEquals(12.0 * 0.1, statistics.getStandardDeviation(), 0.1);
+        assertEquals(statistics.getRelativeStandardDeviation(), p3.getImpacts().get(impactType.getId()).getValue().uncertainty, 0.0);
+        assertEquals(0.0, calculation.getImpactStatistics(p1, impactType).getVariance(), 0.0);
+
+        Calculation again = new Calculation();
+        again.setSolverType(SolverType.DIRECT);
+        again.setUncertaintyMode(UncertaintyMode.MONTE_CARLO);
+        again.setSampleCount(4000);
+        again.setSeed(42L);
+        again.setParallelism(2);
+        again.run();
+        assertEquals(statistics.getMean(), again.getImpactStatistics(p3, impactType).getMean(), 0.0);
+        assertEquals(statistics.getVariance(), again.getImpactStatistics(p3, impactType).getVariance(), 0.0);
+    }
+
+    @Test
+    public void updateElementaryFlows() throws Exception {
+        createChain();
+        for (SolverType solverType : new SolverType[] {SolverType.SERIES, SolverType.DIRECT}) {
+            p2.getInputFlows().put(flowType.getId(), new ElementaryFlow(flowType, new Value(1.0, 0.0)));
+            for (Process process : new Process[] {p1, p2, p3}) {
+                process.setCalculatedFlows(new HashMap<String, ElementaryFlow>());
+                process.setImpacts(new HashMap<String, Impact>());
+            }
+            Calculation calculation = calculate(solverType);
+            p2.getInputFlows().put(flowType.getId(), new ElementaryFlow(flowType, new Value(2.0, 0.0)));
+            ArrayList<Process> moved = calculation.updateElementaryFlows();
+            assertEquals(2, moved.size());
+            assertFalse(moved.contains(p1));
+            assertEquals(1.0, flow(p1), 1e-12);
+            assertEquals(4.0, flow(p2), 1e-12);
+            assertEquals(12.0, flow(p3), 1e-12);
+            assertEquals(24.0, impact(p3), 1e-12);
+            assertEquals(0, calculation.updateElementaryFlows().size());
+        }
+    }
+
+    @Test
+    public void updateElementaryFlowsAfterChangingSolver() throws Exception {
+        createChain();
+        Calculation calculation = calculate(SolverType.SERIES);
+        Coefficient coefficient = p2.getDownstreamDerivedRelations().iterator().next().getCoeff();
+        coefficient.setValue(new Value(5.0, 0.0));
+        calculation.setSolverType(SolverType.DIRECT);
+        calculation.run();
+
+        p2.getInputFlows().put(flowType.getId(), new ElementaryFlow(flowType, new Value(2.0, 0.0)));
+        calculation.updateElementaryFlows();
+        assertEquals(4.0, flow(p2), 1e-12);
+        assertEquals(20.0, flow(p3), 1e-12);
+        assertEquals(40.0, impact(p3), 1e-12);
+    }
+
+    static class SolveCountingCalculation extends Calculation {
+        int solves = 0;
+
+        @Override
+        protected void calculateResults(LinearSolver solver) {
+            solves++;
+            super.calculateResults(solver);
+        }
+    }
+
+    @Test
+    public void stateFile() throws Exception {
+        createChain();
+        File stateFile = File.createTempFile("calculation", ".state");
+        stateFile.deleteOnExit();
+        Calculation calculation = new Calculation();
+        calculation.setSolverType(SolverType.DIRECT);
+        calculation.setStateFile(stateFile);
+        calculation.run();
+        assertTrue(stateFile.length() > 0);
+
+        SolveCountingCalculation loaded = new SolveCountingCalculation();
+        loaded.setSolverType(SolverType.DIRECT);
+        loaded.setStateFile(stateFile);
+        loaded.run();
+        assertEquals(0, loaded.solves);
+        loaded.createCalculatedElementaryFlows();
+        loaded.createImpacts();
+        assertEquals(9.0, flow(p3), 1e-12);
+        assertEquals(18.0, impact(p3), 1e-12);
+
+        p2.getInputFlows().put(flowType.getId(), new ElementaryFlow(flowType, new Value(2.0, 0.0)));
+        SolveCountingCalculation changed = new SolveCountingCalculation();
+        changed.setSolverType(SolverType.DIRECT);
+        changed.setStateFile(stateFile);
+        changed.run();
+        assertEquals(1, changed.solves);
+        assertEquals(12.0, changed.query(p3).get(0).getCalculatedFlows().get(flowType.getId()).getValue().value, 1e-12);
+
+        // same inputs, but the rows of the stored matrices no longer match the processes
+        byte[] hash = new byte[32];
+        RandomAccessFile header = new RandomAccessFile(stateFile, "r");
+        header.seek(8);
+        header.readFully(hash);
+        header.close();
+        CalculationStore store = new CalculationStore(stateFile);
+        CalculationStore.State state = store.load(hash);
+        Collections.reverse(state.processIds);
+        store.save(state);
+        SolveCountingCalculation renamed = new SolveCountingCalculation();
+        renamed.setSolverType(SolverType.DIRECT);
+        renamed.setStateFile(stateFile);
+        renamed.run();
+        assertEquals(1, renamed.solves);
+
+        RandomAccessFile corrupted = new RandomAccessFile(stateFile, "rw");
+        corrupted.setLength(20);
+        corrupted.close();
+        SolveCountingCalculation recalculated = new SolveCountingCalculation();
+        recalculated.setSolverType(SolverType.DIRECT);
+        recalculated.setStateFile(stateFile);
+        recalculated.run();
+        assertEquals(1, recalculated.solves);
+    }
+
+    @Test
+    public void spectralRadius() throws Exception {
+        createLoop();
+        Calculation calculation = calculate(SolverType.SERIES);
+        assertEquals(0.5, calculation.getSpectralRadius(), 1e-6);
+        assertEquals(4.0 / 3.0, flow(p1), 1e-12);
+
+        addRelation(p3, 4.0, p3);
+        try {
+            calculate(SolverType.SERIES);
+            fail("The calculation should diverge");
+        } catch (DivergentCalculationException e) {
+            assertTrue(e.getMessage().contains(p3.getId()));
+            assertFalse(e.getMessage().contains(p1.getId()));
+        }
+        // the factorization does not depend on the convergence of the series
+        calculation = new Calculation();
+        calculation.setSolverType(SolverType.DIRECT);
+        calculation.run();
+        assertEquals(4.0, calculation.getSpectralRadius(), 1e-6);
+    }
+
+    @Test
+    public void spectralRadiusWithNegativeCoefficients() throws Exception {
+        // the spectral radius of |B| is 1.2, the one of B is sqrt(0.72)
+        addRelation(p1, 0.6, p1);
+        addRelation(p1, 0.6, p2);
+        addRelation(p2, 0.6, p1);
+        addRelation(p2, -0.6, p2);
+        addFlow(p1, 1.0);
+        Calculation calculation = calculate(SolverType.SERIES);
+        assertEquals(Math.sqrt(0.72), calculation.getSpectralRadius(), 1e-6);
+        assertEquals(40.0 / 7.0, flow(p1), 1e-9);
+    }
+
+    @Test
+    public void seriesSwitchesToDirectSolver() throws Exception {
+        addRelation(p1, 0.99, p2);
+        addRelation(p2, 0.99, p1);
+        addFlow(p1, 1.0);
+        calculate(SolverType.SERIES);
+        assertEquals(1.0 / (1.0 - 0.99 * 0.99), flow(p1), 1e-9);
+    }
+
+    @Test
+    public void contributionAnalysis() throws Exception {
+        createChain();
+        Calculation calculation = calculate(SolverType.DIRECT);
+        ArrayList<ContributionPath> paths = calculation.analyseContributions(p3, impactType, 10, 0.01);
+        assertEquals(2, paths.size());
+        assertEquals(p1, paths.get(0).getUpstreamProcess());
+        assertEquals(2, paths.get(0).getRelations().size());
+        assertEquals(12.0, paths.get(0).getDirectContribution(), 1e-12);
+        assertEquals(p2, paths.get(1).getUpstreamProcess());
+        assertEquals(6.0, paths.get(1).getDirectContribution(), 1e-12);
+        assertEquals(18.0, paths.get(1).getCumulativeContribution(), 1e-12);
+
+        paths = calculation.analyseContributions(p3, impactType, 10, 0.5);
+        assertEquals(1, paths.size());
+        assertEquals(p1, paths.get(0).getUpstreamProcess());
+
+        for (int count : new int[] {0, -1}) {
+            try {
+                calculation.analyseContributions(p3, impactType, count, 0.5);
+                fail("The number of paths should be rejected: " + count);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("at least 1"));
+            }
+        }
+    }
+
+    @Test
+    public void contributionAnalysisWithLoop() throws Exception {
+        createLoop();
+        Calculation calculation = calculate(SolverType.DIRECT);
+        ArrayList<ContributionPath> paths = calculation.analyseContributions(p1, impactType, 3, 1e-3);
+        assertEquals(3, paths.size());
+        assertEquals(0, paths.get(0).getRelations().size());
+        assertEquals(2.0, paths.get(0).getDirectContribution(), 1e-12);
+        assertEquals(2, paths.get(1).getRelations().size());
+        assertEquals(0.5, paths.get(1).getDirectContribution(), 1e-12);
+    }
+
+    @Test
+    public void sensitivities() throws Exception {
+        Coefficient c1 = addRelation(p1, 2.0, p2);
+        Coefficient c2 = addRelation(p2, 3.0, p3);
+        addFlow(p1, 1.0);
+        addFlow(p2, 1.0);
+        for (SolverType solverType : new SolverType[] {SolverType.SERIES, SolverType.BLOCK_TRIANGULAR}) {
+            Calculation calculation = new Calculation();
+            calculation.setSolverType(solverType);
+            calculation.setThreshold(1e-12);
+            calculation.run();
+            ArrayList<CoefficientSensitivity> sensitivities = calculation.sensitivities(p3, impactType);
+            assertEquals(2, sensitivities.size());
+            assertEquals(c2, sensitivities.get(0).getCoefficient());
+            assertEquals(6.0, sensitivities.get(0).getGradient(), 1e-12);
+            assertEquals(1.0, sensitivities.get(0).getElasticity(), 1e-12);
+            assertEquals(c1, sensitivities.get(1).getCoefficient());
+            assertEquals(6.0, sensitivities.get(1).getGradient(), 1e-12);
+            assertEquals(2.0 / 3.0, sensitivities.get(1).getElasticity(), 1e-12);
+            assertEquals(0, calculation.sensitivities(p1, impactType).size());
+        }
+    }
+
+    @Test
+    public void scenarios() throws Exception {
+        Coefficient c1 = addRelation(p1, 2.0, p2);
+        Coefficient c2 = addRelation(p2, 3.0, p3);
+        addFlow(p1, 1.0);
+        addFlow(p2, 1.0);
+        Calculation calculation = calculate(SolverType.DIRECT);
+
+        final ConcurrentHashMap<String, Double> results = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, Exception> failures = new ConcurrentHashMap<>();
+        ScenarioSink sink = new ScenarioSink() {
+            @Override
+            public void accept(Scenario scenario, Process process, HashMap<String, Impact> impacts) {
+                if (process == p3) {
+                    results.put(scenario.getId(), impacts.get(impactType.getId()).getValue().value);
+                }
+            }
+
+            @Override
+            public void failed(Scenario scenario, Exception cause) {
+                failures.put(scenario.getId(), cause);
+            }
+        };
+        calculation.setParallelism(3);
+        calculation.runScenarios(Arrays.asList(
+                new Scenario("nominal"),
+                new Scenario("c1").override(c1, new Value(4.0, 0.0)),
+                new Scenario("c2").override(c2, new Value(1.0, 0.0)),
+                new Scenario("both").override(c1, new Value(4.0, 0.0)).override(c2, new Value(1.0, 0.0))
+        ), sink);
+        assertEquals(18.0, results.get("nominal"), 1e-12);
+        assertEquals(30.0, results.get("c1"), 1e-12);
+        assertEquals(6.0, results.get("c2"), 1e-12);
+        assertEquals(10.0, results.get("both"), 1e-12);
+        assertTrue(failures.isEmpty());
+        assertEquals(2.0, c1.getValue().value, 0.0);
+        assertEquals(18.0, impact(p3), 1e-12);
+
+        Coefficient loop = addRelation(p3, 0.1, p2);
+        calculation = new Calculation();
+        results.clear();
+        calculation.runScenarios(Arrays.asList(
+                new Scenario("singular").override(loop, new Value(1.0 / 3.0, 0.0)).override(c2, new Value(3.0, 0.0))
+        ), sink);
+        assertTrue(failures.containsKey("singular"));
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void refreshImpacts() throws Exception {
+        createChain();
+        Calculation calculation = calculate(SolverType.SERIES);
+        impactType.addComponent(flowType, new Value(5.0, 0.0));
+        calculation.refreshImpacts();
+        assertEquals(9.0, flow(p3), 1e-12);
+        assertEquals(45.0, impact(p3), 1e-12);
+        assertEquals(5.0, impact(p1), 1e-12);
+    }
+
+    @Test
+    public void analyticUncertainties() throws Exception {
+        createChain();
+        for (DerivedRelation relation : p1.getDownstreamDerivedRelations()) {
+            relation.getCoeff().setValue(new Value(2.0, 0.1));
+        }
+        Calculation calculation = new Calculation();
+        calculation.setSolverType(SolverType.DIRECT);
+        calculation.setUncertaintyMode(UncertaintyMode.ANALYTIC);
+        calculation.setThreshold(1e-12);
+        calculation.run();
+        calculation.createCalculatedElementaryFlows();
+        calculation.createImpacts();
+
+        assertEquals(0.0, p1.getCalculatedFlows().get(flowType.getId()).getValue().uncertainty, 1e-12);
+        assertEquals(0.2 / 3.0, p2.getCalculatedFlows().get(flowType.getId()).getValue().uncertainty, 1e-12);
+        assertEquals(0.6 / 9.0, p3.getCalculatedFlows().get(flowType.getId()).getValue().uncertainty, 1e-12);
+        assertEquals(0.6 / 9.0, p3.getImpacts().get(impactType.getId()).getValue().uncertainty, 1e-12);
+    }
+
+    @Test
+    public void analyticSeriesConvergesOnRelativeChanges() throws Exception {
+        TripletMatrixBuilder dependencies = new TripletMatrixBuilder(2, 2);
+        dependencies.add(1, 0, 0.5);
+        dependencies.add(0, 1, 0.5);
+        TripletMatrixBuilder rhs = new TripletMatrixBuilder(2, 1);
+        rhs.add(0, 0, 1.0);
+        AnalyticUncertaintyPropagation propagation = new AnalyticUncertaintyPropagation();
+        ConvergenceTracker tracker = new ConvergenceTracker(0.0, 1e-6);
+        UncertainMatrix sum = propagation.series(
+                new UncertainMatrix(dependencies.build(), new double[] {0.1, 0.1}),
+                new UncertainMatrix(rhs.build(), new double[] {0.0}),
+                tracker,
+                1000);
+        assertTrue(tracker.hasConverged());
+        assertTrue(tracker.getIterations() < 100);
+        assertEquals(4.0 / 3.0, sum.getValues().toCCSMatrix().get(0, 0), 1e-5);
+    }
+
+    @Test
+    public void queryWithoutRun() throws Exception {
+        createChain();
+        Calculation calculation = new Calculation();
+        ArrayList<ProcessResult> results = calculation.query(p3, p2);
+        assertEquals(9.0, results.get(0).getCalculatedFlows().get(flowType.getId()).getValue().value, 1e-12);
+        assertEquals(18.0, results.get(0).getImpacts().get(impactType.getId()).getValue().value, 1e-12);
+        assertEquals(3.0, results.get(1).getCalculatedFlows().get(flowType.getId()).getValue().value, 1e-12);
+        assertTrue(results.get(0) == calculation.query(p3).get(0));
+
+        Process added = createProcess("added");
+        try {
+            calculation.query(added);
+            fail("A process added after the preparation should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void queryTransposedSolvers() throws Exception {
+        createLoop();
+        addRelation(p2, 3.0, p3);
+        addRelation(p3, 0.5, p3);
+        for (SolverType solverType : new SolverType[] {SolverType.BLOCK_TRIANGULAR, SolverType.GAUSS_SEIDEL, SolverType.JACOBI}) {
+            Calculation calculation = new Calculation();
+            calculation.setSolverType(solverType);
+            calculation.setThreshold(1e-13);
+            ProcessResult result = calculation.query(p3).get(0);
+            assertEquals(4.0, result.getCalculatedFlows().get(flowType.getId()).getValue().value, 1e-10);
+            assertEquals(8.0, result.getImpacts().get(impactType.getId()).getValue().value, 1e-10);
+        }
+    }
+
+    @Test
+    public void processGraphComponents() throws Exception {
+        createLoop();
+        addRelation(p2, 3.0, p3);
+        IndexRegistry<Process> processes = new IndexRegistry<>();
+        processes.register(p3);
+        processes.register(p2);
+        processes.register(p1);
+        ProcessGraph graph = new ProcessGraph(processes);
+        assertEquals(2, graph.getComponents().size());
+        assertEquals(graph.getComponentOf(1), graph.getComponentOf(2));
+        assertTrue(graph.getComponentOf(1) < graph.getComponentOf(0));
+        assertEquals(1, graph.getCycles().size());
+        assertEquals(2, graph.getCycles().get(0).size());
+    }
+}
@@ -152,6 +152,41 @@ public class DimensionSetTest
         assertTrue(dimSetResult.equals(expectedDimSet));
     }
 
+    /**
+     * Test for DimensionSet.coordinates
+     */
+    @Test public void coordinates()
+    {
+        DimensionSet dimSet = new DimensionSet(dim12, dim34, new Dimension(new Keyword("kw5")));
+
+        DimensionSet streamed = new DimensionSet();
+        int count = 0;
+        for (Dimension coordinate: dimSet.coordinates()) {
+            streamed.add(coordinate);
+            count++;
+        }
+
+        assertEquals(4, count);
+        assertTrue(streamed.equals(dimSet.combinations()));
+        assertFalse(new DimensionSet(dim12, new Dimension()).coordinates().iterator().hasNext());
+        assertFalse(new DimensionSet().coordinates().iterator().hasNext());
+    }
+
+    /**
+     * Test for DimensionSet.coordinates
+     */
+    @Test public void coordinatesWithOverlappingDimensions()
+    {
+        DimensionSet dimSet = new DimensionSet(dim12, new Dimension(kw1, kw2, kw3));
+
+        int count = 0;
+        for (Dimension ignored: dimSet.coordinates()) {
+            count++;
+        }
+
+        assertEquals(dimSet.combinations().size(), count);
+    }
+
     /**
      * Test for DimensionSet.commonKeywords
      */
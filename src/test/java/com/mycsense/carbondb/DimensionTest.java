@@ -22,8 +22,10 @@
 
 package com.mycsense.carbondb;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.mycsense.carbondb.domain.Dimension;
 import com.mycsense.carbondb.domain.Keyword;
@@ -133,4 +135,45 @@ public class DimensionTest
         dim2.addKeyword(kw1);
         assertFalse(dim1.equals(dim2));
     }
+
+    /**
+    * Test for Dimension.equals and Dimension.hasCommonKeywords beyond the bitset range
+    */
+    @Test public void keywordSetsWithManyKeywords()
+    {
+        Dimension dim1 = new Dimension();
+        Dimension dim2 = new Dimension();
+        for (int i = 0; i < 100; i++) {
+            dim1.addKeyword(new Keyword("many" + i));
+            dim2.addKeyword(new Keyword("many" + (99 - i)));
+        }
+        assertTrue(dim1.equals(dim2));
+        assertEquals(dim1.hashCode(), dim2.hashCode());
+
+        Dimension dim3 = new Dimension(kw1, new Keyword("many99"));
+        assertTrue(dim1.hasCommonKeywords(dim3));
+        assertTrue(dim3.contains(new Keyword("many99")));
+        assertFalse(dim1.hasCommonKeywords(new Dimension(kw1, kw2)));
+        assertEquals(new Keyword("kw1").getIndex(), kw1.getIndex());
+    }
+
+    /**
+     * Test for Dimension.getKeywords
+     */
+    @Test
+    public void keywordsOnlyChangeThroughTheDimension()
+    {
+        Dimension dim1 = new Dimension(kw1);
+        Dimension dim12 = new Dimension(kw1, kw2);
+        assertFalse(dim1.equals(dim12));
+        try {
+            dim1.getKeywords().add(kw2);
+            fail("The keywords should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(1, dim1.size());
+        }
+        dim1.addKeyword(kw2);
+        assertTrue(dim1.equals(dim12));
+        assertEquals(dim12.hashCode(), dim1.hashCode());
+    }
 }
@@ -26,15 +26,23 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
 import com.mycsense.carbondb.architecture.Datatype;
+import com.mycsense.carbondb.domain.CarbonOntology;
+import com.mycsense.carbondb.domain.Coefficient;
+import com.mycsense.carbondb.domain.DerivedRelation;
 import com.mycsense.carbondb.domain.Dimension;
 import com.mycsense.carbondb.domain.DimensionSet;
 import com.mycsense.carbondb.domain.Group;
+import com.mycsense.carbondb.domain.JoinKey;
 import com.mycsense.carbondb.domain.Keyword;
+import com.mycsense.carbondb.domain.KeywordSet;
+import com.mycsense.carbondb.domain.Process;
 import com.mycsense.carbondb.domain.RelationType;
 import com.mycsense.carbondb.domain.SourceRelation;
 import com.mycsense.carbondb.domain.Unit;
 import com.mycsense.carbondb.domain.UnitTools;
+import com.mycsense.carbondb.domain.Value;
 import com.mycsense.carbondb.domain.relation.TranslationDerivative;
+import com.mycsense.carbondb.domain.relation.Translator;
 import com.mycsense.carbondb.domain.relation.Type;
 
 import org.junit.Test;
@@ -155,6 +163,27 @@ public class SourceRelationTest
         assertTrue(groupHashTable.get("kw1,kw4").get(0).equals(expectedDimension14));
     }
 
+    /**
+     * Test for SourceRelation.createJoinTable
+     */
+    @Test public void createJoinTable()
+    {
+        Group group = new Group(new DimensionSet(dim12, dim34));
+        KeywordSet commonKeywords = new Dimension(kw1, kw3, kw4).getKeywordSet();
+        HashMap<JoinKey, ArrayList<Dimension>> joinTable;
+        joinTable = SourceRelation.createJoinTable(group, commonKeywords, 2);
+
+        assertEquals(2, joinTable.size());
+        Dimension dim13 = new Dimension(kw1, kw3);
+        Dimension dim14 = new Dimension(kw1, kw4);
+        assertEquals(dim13, joinTable.get(JoinKey.of(dim13.getKeywordSet(), commonKeywords, 2)).get(0));
+        assertEquals(dim14, joinTable.get(JoinKey.of(new Dimension(kw1).getKeywordSet(),
+                                                     new Dimension(kw4).getKeywordSet(),
+                                                     commonKeywords, 2)).get(0));
+        assertEquals(null, JoinKey.of(new Dimension(kw2, kw3).getKeywordSet(), commonKeywords, 2));
+        assertEquals(JoinKey.EMPTY, JoinKey.of(dim13.getKeywordSet(), commonKeywords, 0));
+    }
+
     /**
      * Test for SourceRelation.translate
      * The tests should contains the following cases :
@@ -393,4 +422,68 @@ public class SourceRelationTest
         assertEquals(4, derivatives.size());
         assertTrue(derivatives.containsAll(expected));
     }
+
+    /**
+     * Test for Translator.translate
+     */
+    @Test public void parallelTranslationIsDeterministic() throws Exception
+    {
+        String sequential = translateWithParallelism(1);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(sequential, translateWithParallelism(4));
+        }
+        assertEquals(6, CarbonOntology.getInstance().getProcesses().size());
+        assertEquals(12, CarbonOntology.getInstance().getDerivedRelations().size());
+    }
+
+    /**
+     * Test for CarbonOntology.getProcess and CarbonOntology.getCoefficient
+     */
+    @Test public void elementLookup() throws Exception
+    {
+        CarbonOntology ontology = CarbonOntology.getInstance();
+        ontology.clear();
+        Process process = new Process(dim12.getKeywords(), unit);
+        ontology.addProcess(process);
+        Coefficient coefficient = new Coefficient(dim34, unit, new Value(1.0, 0.0));
+        ontology.addCoefficient(coefficient);
+
+        assertTrue(process == ontology.getProcess(new Dimension(kw2, kw1), unit));
+        assertTrue(coefficient == ontology.getCoefficient(new Dimension(kw3, kw4), unit));
+        assertEquals(null, ontology.getProcess(dim34, unit));
+        assertEquals(null, ontology.getCoefficient(dim12, unit));
+        assertEquals(null, ontology.getProcess(dim12, new Unit("other", "", "")));
+    }
+
+    protected String translateWithParallelism(int parallelism) throws AlreadyExistsException
+    {
+        CarbonOntology ontology = CarbonOntology.getInstance();
+        ontology.clear();
+        DimensionSet dimSet1234 = new DimensionSet(dim12, dim34);
+        Group coeffGroup = new Group(dimSet1234);
+        coeffGroup.setType(com.mycsense.carbondb.domain.group.Type.COEFFICIENT);
+        coeffGroup.setUnit(unit);
+        for (Dimension coordinates: coeffGroup.getCoordinates().dimensions) {
+            ontology.addCoefficient(new Coefficient(coordinates, unit, new Value(1.0, 0.0)));
+        }
+        Group processGroup = new Group(dimSet1234);
+        processGroup.setUnit(unit);
+        Group aggregatedGroup = new Group(new DimensionSet(dim12));
+        aggregatedGroup.setUnit(unit);
+
+        ArrayList<SourceRelation> sourceRelations = new ArrayList<>();
+        sourceRelations.add(new SourceRelation(processGroup, coeffGroup, processGroup));
+        sourceRelations.add(new SourceRelation(processGroup, coeffGroup, aggregatedGroup));
+        sourceRelations.add(new SourceRelation(processGroup, coeffGroup, processGroup));
+        assertEquals(12, new Translator(ontology, parallelism).translate(sourceRelations));
+
+        StringBuilder result = new StringBuilder();
+        for (Process process: ontology.getProcessIndex().getElements()) {
+            result.append(process).append('\n');
+        }
+        for (DerivedRelation derivedRelation: ontology.getDerivedRelations()) {
+            result.append(derivedRelation).append('\n');
+        }
+        return result.toString();
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014, by Benjamin Bertin and Contributors.
+ *
+ * This file is part of CarbonDB-reasoner project <http://www.carbondb.org>
+ *
+ * CarbonDB-reasoner is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * CarbonDB-reasoner is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CarbonDB-reasoner.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contributor(s): -
+ *
+ */
+
+package com.mycsense.carbondb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.mycsense.carbondb.domain.calculation.SparseColumnMatrix;
+import com.mycsense.carbondb.domain.calculation.TripletMatrixBuilder;
+import org.junit.Test;
+import org.la4j.matrix.sparse.CCSMatrix;
+
+/**
+ * Unit test for TripletMatrixBuilder.
+ */
+public class TripletMatrixBuilderTest
+{
+    @Test public void buildSortsRowsInsideColumns()
+    {
+        TripletMatrixBuilder builder = new TripletMatrixBuilder(3, 2, 1);
+        builder.add(2, 1, 3.0);
+        builder.add(0, 1, 1.0);
+        builder.add(1, 0, 2.0);
+        SparseColumnMatrix matrix = builder.build();
+
+        assertArrayEquals(new int[] {0, 1, 3}, matrix.getColumnPointers());
+        assertArrayEquals(new int[] {1, 0, 2}, matrix.getRowIndices());
+        assertArrayEquals(new double[] {2.0, 1.0, 3.0}, matrix.getValues(), 0.0);
+    }
+
+    @Test public void buildSumsDuplicatesAndDropsZeros()
+    {
+        TripletMatrixBuilder builder = new TripletMatrixBuilder(2, 2);
+        builder.add(0, 0, 1.0);
+        builder.add(0, 0, 2.0);
+        builder.add(1, 1, 4.0);
+        builder.add(1, 1, -4.0);
+        builder.add(1, 0, 0.0);
+        SparseColumnMatrix matrix = builder.build();
+
+        assertEquals(1, matrix.cardinality());
+        CCSMatrix ccs = matrix.toCCSMatrix();
+        assertEquals(3.0, ccs.get(0, 0), 0.0);
+        assertEquals(0.0, ccs.get(1, 1), 0.0);
+        assertEquals(0.0, ccs.get(1, 0), 0.0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class) public void addOutOfBounds()
+    {
+        new TripletMatrixBuilder(2, 2).add(2, 0, 1.0);
+    }
+}